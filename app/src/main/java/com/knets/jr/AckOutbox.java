@@ -0,0 +1,196 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent queue of command acknowledgements that have not been confirmed by the server.
+ *
+ * Acks are written through to SharedPreferences as soon as they are added, so a process
+ * death between executing a command and delivering its ack does not make the server
+ * re-send (and the device re-execute) the command. Entries leave the outbox only once a
+ * request carrying them succeeded, which gives at-least-once delivery.
+ *
+ * Senders {@link #claim(int)} a batch, then either {@link #confirm(List)} or
+ * {@link #release(List)} it. Claimed entries are not handed out twice concurrently.
+ *
+ * Beyond MAX_ENTRIES the oldest unclaimed ack is dropped. An ack that is in flight
+ * is never dropped, so the outbox may briefly hold more while deliveries are out;
+ * {@link #isFull()} lets the owner stop fetching commands until it drains.
+ */
+public class AckOutbox {
+    private static final String TAG = "KnetsAckOutbox";
+    private static final String PREF_ACK_OUTBOX = "ack_outbox";
+    static final int MAX_ENTRIES = 200;
+    
+    /**
+     * One pending acknowledgement.
+     */
+    public static final class Entry {
+        public final String commandId;
+        public final String status;
+        public final long timestamp;
+        public final JsonObject result; // handler outcome (fix, lock state, error code), or null
+        public final JsonObject latency; // per-stage timestamps, or null if not tracked
+        
+        Entry(String commandId, String status, long timestamp, JsonObject result, JsonObject latency) {
+            this.commandId = commandId;
+            this.status = status;
+            this.timestamp = timestamp;
+            this.result = result;
+            this.latency = latency;
+        }
+        
+        public JsonObject toJson() {
+            return ApiJson.ACK_ADAPTER.toJsonTree(this).getAsJsonObject();
+        }
+    }
+    
+    private final SharedPreferences prefs;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Set<String> claimed = new HashSet<>();
+    private long dropped = 0;
+    
+    public AckOutbox(Context context) {
+        this(context.getSharedPreferences("knets_jr", Context.MODE_PRIVATE));
+    }
+    
+    AckOutbox(SharedPreferences prefs) {
+        this.prefs = prefs;
+        load();
+    }
+    
+    /**
+     * Queue an ack and persist it before returning. Re-adding a queued command id is a no-op.
+     */
+    public synchronized void add(String commandId, String status, JsonObject result, JsonObject latency) {
+        if (entries.containsKey(commandId)) {
+            return;
+        }
+        
+        if (entries.size() >= MAX_ENTRIES) {
+            dropOldestUnclaimed();
+        }
+        
+        entries.put(commandId, new Entry(commandId, status, System.currentTimeMillis(), result, latency));
+        // Synchronous write: the ack must be on disk before the command counts as handled
+        save(true);
+    }
+    
+    /**
+     * Take up to {@code max} unclaimed entries, oldest first, for one delivery attempt.
+     */
+    public synchronized List<Entry> claim(int max) {
+        List<Entry> batch = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (batch.size() >= max) {
+                break;
+            }
+            if (claimed.add(entry.commandId)) {
+                batch.add(entry);
+            }
+        }
+        return batch;
+    }
+    
+    /**
+     * The server accepted these acks; drop them from the outbox.
+     */
+    public synchronized void confirm(List<Entry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        for (Entry entry : batch) {
+            claimed.remove(entry.commandId);
+            entries.remove(entry.commandId);
+        }
+        // Losing a confirmation only causes a duplicate ack, so the write can be lazy
+        save(false);
+    }
+    
+    /**
+     * Delivery failed; make these acks available to the next attempt.
+     */
+    public synchronized void release(List<Entry> batch) {
+        for (Entry entry : batch) {
+            claimed.remove(entry.commandId);
+        }
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public synchronized boolean hasUnclaimed() {
+        return entries.size() > claimed.size();
+    }
+    
+    public synchronized boolean isFull() {
+        return entries.size() >= MAX_ENTRIES;
+    }
+    
+    /**
+     * @return acks dropped at capacity since this outbox was created
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+    
+    private void dropOldestUnclaimed() {
+        for (String commandId : entries.keySet()) {
+            if (!claimed.contains(commandId)) {
+                entries.remove(commandId);
+                dropped++;
+                Log.w(TAG, "Ack outbox full, dropping ack for " + commandId + " (" + dropped + " dropped)");
+                return;
+            }
+        }
+        // Everything is in flight; keep it all rather than lose an ack being delivered
+    }
+    
+    private void load() {
+        String json = prefs.getString(PREF_ACK_OUTBOX, "");
+        if (json.isEmpty()) {
+            return;
+        }
+        
+        try {
+            JsonArray array = ApiJson.GSON.fromJson(json, JsonArray.class);
+            for (JsonElement element : array) {
+                Entry entry = ApiJson.ACK_ADAPTER.fromJsonTree(element);
+                entries.put(entry.commandId, entry);
+            }
+            Log.d(TAG, "Restored " + entries.size() + " pending acks");
+        } catch (Exception e) {
+            Log.e(TAG, "Discarding unreadable ack outbox", e);
+            prefs.edit().remove(PREF_ACK_OUTBOX).apply();
+        }
+    }
+    
+    private void save(boolean sync) {
+        JsonArray array = new JsonArray();
+        for (Entry entry : entries.values()) {
+            array.add(entry.toJson());
+        }
+        
+        SharedPreferences.Editor editor = prefs.edit().putString(PREF_ACK_OUTBOX, array.toString());
+        if (sync) {
+            editor.commit();
+        } else {
+            editor.apply();
+        }
+    }
+}
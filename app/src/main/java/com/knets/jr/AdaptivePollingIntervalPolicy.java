@@ -0,0 +1,93 @@
+package com.knets.jr;
+
+/**
+ * Polling policy that tightens the interval while a parent is actively sending
+ * commands or the child is using the device, and stretches it when the device
+ * is idle, on metered cellular, or low on battery.
+ */
+public class AdaptivePollingIntervalPolicy implements PollingIntervalPolicy {
+    static final long ACTIVE_INTERVAL = 5000; // 5 seconds right after a command
+    static final long INTERACTIVE_INTERVAL = 15000; // 15 seconds while screen is on
+    static final long BASE_INTERVAL = 30000; // 30 seconds
+    static final long IDLE_INTERVAL = 120000; // 2 minutes when idle
+    static final long LOW_BATTERY_INTERVAL = 300000; // 5 minutes
+    static final long MAX_INTERVAL = 300000; // 5 minutes
+
+    static final long ACTIVITY_WINDOW = 120000; // commands within 2 minutes count as active
+    static final long IDLE_THRESHOLD = 600000; // 10 minutes without commands or screen use
+    static final int LOW_BATTERY_PERCENT = 15;
+    static final int METERED_MULTIPLIER = 2;
+
+    private final Clock clock;
+    private final Listener listener;
+
+    private long lastCommandAt = Long.MIN_VALUE;
+    private long lastInteractiveAt;
+    private long lastInterval = -1;
+    private String lastReason = "";
+
+    public AdaptivePollingIntervalPolicy(Clock clock, Listener listener) {
+        this.clock = clock;
+        this.listener = listener;
+        this.lastInteractiveAt = clock.now();
+    }
+
+    @Override
+    public synchronized void onCommandActivity() {
+        lastCommandAt = clock.now();
+    }
+
+    @Override
+    public synchronized long nextInterval(DeviceState state) {
+        long now = clock.now();
+        if (state.interactive) {
+            lastInteractiveAt = now;
+        }
+
+        long interval;
+        String reason;
+
+        if (lastCommandAt != Long.MIN_VALUE && now - lastCommandAt < ACTIVITY_WINDOW) {
+            // A parent is actively issuing commands - respond quickly regardless of conditions
+            interval = ACTIVE_INTERVAL;
+            reason = "recent command activity";
+        } else if (!state.charging && state.batteryPercent >= 0 && state.batteryPercent <= LOW_BATTERY_PERCENT) {
+            interval = LOW_BATTERY_INTERVAL;
+            reason = "low battery (" + state.batteryPercent + "%)";
+        } else {
+            if (state.interactive) {
+                interval = INTERACTIVE_INTERVAL;
+                reason = "screen interactive";
+            } else if (now - Math.max(lastInteractiveAt, lastCommandAt) >= IDLE_THRESHOLD) {
+                interval = IDLE_INTERVAL;
+                reason = "device idle";
+            } else {
+                interval = BASE_INTERVAL;
+                reason = "baseline";
+            }
+
+            if (state.meteredCellular) {
+                interval = Math.min(interval * METERED_MULTIPLIER, MAX_INTERVAL);
+                reason += ", metered cellular";
+            }
+        }
+
+        if (interval != lastInterval || !reason.equals(lastReason)) {
+            lastInterval = interval;
+            lastReason = reason;
+            if (listener != null) {
+                listener.onIntervalDecision(interval, reason);
+            }
+        }
+
+        return interval;
+    }
+
+    public synchronized long getLastInterval() {
+        return lastInterval;
+    }
+
+    public synchronized String getLastReason() {
+        return lastReason;
+    }
+}
@@ -0,0 +1,245 @@
+package com.knets.jr;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * The one serializer shared by every API payload.
+ *
+ * Gson is built once per process and every DTO has a hand-written TypeAdapter, so
+ * no payload is (de)serialized through reflection. That avoids the reflective
+ * warm-up on cold start, keeps per-request garbage to the payload itself and
+ * leaves nothing for a shrinker to break.
+ */
+public final class ApiJson {
+    public static final TypeAdapter<ParentCommand> COMMAND_ADAPTER = new ParentCommandAdapter();
+    public static final TypeAdapter<AckOutbox.Entry> ACK_ADAPTER = new AckAdapter();
+    public static final TypeAdapter<LocationUpdate> LOCATION_ADAPTER = new LocationUpdateAdapter();
+    public static final TypeAdapter<DeviceRegistration> REGISTRATION_ADAPTER = new DeviceRegistrationAdapter();
+    
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(ParentCommand.class, COMMAND_ADAPTER)
+            .registerTypeAdapter(AckOutbox.Entry.class, ACK_ADAPTER)
+            .registerTypeAdapter(LocationUpdate.class, LOCATION_ADAPTER)
+            .registerTypeAdapter(DeviceRegistration.class, REGISTRATION_ADAPTER)
+            .create();
+    
+    private ApiJson() {
+    }
+    
+    /**
+     * Parse an untyped JSON object with the shared instance.
+     */
+    public static JsonObject parseObject(String json) {
+        return GSON.fromJson(json, JsonObject.class);
+    }
+    
+    private static final class ParentCommandAdapter extends TypeAdapter<ParentCommand> {
+        @Override
+        public void write(JsonWriter out, ParentCommand command) throws IOException {
+            GSON.toJson(command.payload, out);
+        }
+        
+        @Override
+        public ParentCommand read(JsonReader in) throws IOException {
+            // Handlers and the journal need the whole object, so read it once as a tree
+            JsonElement element = GSON.fromJson(in, JsonElement.class);
+            if (element == null || !element.isJsonObject()) {
+                throw new JsonParseException("Command is not an object");
+            }
+            
+            JsonObject payload = element.getAsJsonObject();
+            if (!payload.has("id") || !payload.has("type")) {
+                throw new JsonParseException("Command without id or type");
+            }
+            return new ParentCommand(payload.get("id").getAsString(), payload.get("type").getAsString(), payload);
+        }
+    }
+    
+    private static final class AckAdapter extends TypeAdapter<AckOutbox.Entry> {
+        @Override
+        public void write(JsonWriter out, AckOutbox.Entry ack) throws IOException {
+            out.beginObject();
+            out.name("commandId").value(ack.commandId);
+            out.name("status").value(ack.status);
+            out.name("timestamp").value(ack.timestamp);
+            if (ack.result != null) {
+                out.name("result");
+                GSON.toJson(ack.result, out);
+            }
+            if (ack.latency != null) {
+                out.name("latency");
+                GSON.toJson(ack.latency, out);
+            }
+            out.endObject();
+        }
+        
+        @Override
+        public AckOutbox.Entry read(JsonReader in) throws IOException {
+            String commandId = null;
+            String status = null;
+            long timestamp = 0;
+            JsonObject result = null;
+            JsonObject latency = null;
+            
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "result":
+                        result = GSON.fromJson(in, JsonObject.class);
+                        break;
+                    case "latency":
+                        latency = GSON.fromJson(in, JsonObject.class);
+                        break;
+                    case "commandId":
+                        commandId = in.nextString();
+                        break;
+                    case "status":
+                        status = in.nextString();
+                        break;
+                    case "timestamp":
+                        timestamp = in.nextLong();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            
+            if (commandId == null || status == null) {
+                throw new JsonParseException("Ack without commandId or status");
+            }
+            return new AckOutbox.Entry(commandId, status, timestamp, result, latency);
+        }
+    }
+    
+    private static final class LocationUpdateAdapter extends TypeAdapter<LocationUpdate> {
+        @Override
+        public void write(JsonWriter out, LocationUpdate update) throws IOException {
+            out.beginObject();
+            out.name("deviceImei").value(update.deviceImei);
+            out.name("latitude").value(update.latitude);
+            out.name("longitude").value(update.longitude);
+            out.name("accuracy").value(update.accuracy);
+            out.name("timestamp").value(update.timestamp);
+            out.name("provider").value(update.provider);
+            if (update.altitude != null) {
+                out.name("altitude").value(update.altitude);
+            }
+            if (update.speed != null) {
+                out.name("speed").value(update.speed);
+            }
+            if (update.source != null) {
+                out.name("source").value(update.source);
+            }
+            out.endObject();
+        }
+        
+        @Override
+        public LocationUpdate read(JsonReader in) throws IOException {
+            String deviceImei = null;
+            double latitude = 0;
+            double longitude = 0;
+            double accuracy = 0;
+            long timestamp = 0;
+            String provider = null;
+            Double altitude = null;
+            Float speed = null;
+            String source = null;
+            
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "deviceImei":
+                        deviceImei = in.nextString();
+                        break;
+                    case "latitude":
+                        latitude = in.nextDouble();
+                        break;
+                    case "longitude":
+                        longitude = in.nextDouble();
+                        break;
+                    case "accuracy":
+                        accuracy = in.nextDouble();
+                        break;
+                    case "timestamp":
+                        timestamp = in.nextLong();
+                        break;
+                    case "provider":
+                        provider = in.nextString();
+                        break;
+                    case "altitude":
+                        altitude = in.nextDouble();
+                        break;
+                    case "speed":
+                        speed = (float) in.nextDouble();
+                        break;
+                    case "source":
+                        source = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            
+            return new LocationUpdate(deviceImei, latitude, longitude, accuracy, timestamp, provider,
+                    altitude, speed, source);
+        }
+    }
+    
+    private static final class DeviceRegistrationAdapter extends TypeAdapter<DeviceRegistration> {
+        @Override
+        public void write(JsonWriter out, DeviceRegistration registration) throws IOException {
+            out.beginObject();
+            out.name("parentCode").value(registration.parentCode);
+            out.name("deviceImei").value(registration.deviceImei);
+            out.name("deviceInfo").value(registration.deviceInfo);
+            out.endObject();
+        }
+        
+        @Override
+        public DeviceRegistration read(JsonReader in) throws IOException {
+            String parentCode = null;
+            String deviceImei = null;
+            String deviceInfo = null;
+            
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "parentCode":
+                        parentCode = in.nextString();
+                        break;
+                    case "deviceImei":
+                        deviceImei = in.nextString();
+                        break;
+                    case "deviceInfo":
+                        deviceInfo = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            
+            return new DeviceRegistration(parentCode, deviceImei, deviceInfo);
+        }
+    }
+}
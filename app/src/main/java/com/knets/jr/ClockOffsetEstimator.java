@@ -0,0 +1,98 @@
+package com.knets.jr;
+
+import java.util.Date;
+
+import okhttp3.Response;
+
+/**
+ * Estimates how far the server clock is ahead of the device clock from HTTP round trips.
+ *
+ * Each response's server timestamp is assumed to be taken halfway through the round
+ * trip (offset = serverTime - (sent + rtt / 2)). The error of a sample is bounded by
+ * half its RTT, so like an NTP clock filter only the lowest-RTT sample of the recent
+ * window is trusted. Requests the server held open (long-polls) must not be fed in.
+ */
+public class ClockOffsetEstimator {
+    public static final String SERVER_TIME_HEADER = "X-Server-Time"; // epoch millis, if the server sends it
+    private static final int WINDOW = 8;
+    private static final long DATE_HEADER_RESOLUTION = 1000; // Date is whole seconds
+    
+    private final long[] offsets = new long[WINDOW];
+    private final long[] errors = new long[WINDOW];
+    private int samples = 0;
+    private int next = 0;
+    
+    /**
+     * Record one completed, non-held request.
+     */
+    public void onResponse(Response response) {
+        long serverTime = -1;
+        long resolution = 0;
+        
+        String header = response.header(SERVER_TIME_HEADER);
+        if (header != null) {
+            try {
+                serverTime = Long.parseLong(header.trim());
+            } catch (NumberFormatException ignored) {
+                // fall back to the Date header
+            }
+        }
+        if (serverTime < 0) {
+            Date date = response.headers().getDate("Date");
+            if (date == null) {
+                return;
+            }
+            // Truncated to the second, so on average half a second early
+            serverTime = date.getTime() + DATE_HEADER_RESOLUTION / 2;
+            resolution = DATE_HEADER_RESOLUTION / 2;
+        }
+        
+        long sentAt = response.sentRequestAtMillis();
+        long receivedAt = response.receivedResponseAtMillis();
+        long rtt = Math.max(0, receivedAt - sentAt);
+        
+        synchronized (this) {
+            offsets[next] = serverTime - (sentAt + rtt / 2);
+            errors[next] = rtt / 2 + resolution;
+            next = (next + 1) % WINDOW;
+            samples = Math.min(samples + 1, WINDOW);
+        }
+    }
+    
+    public synchronized boolean hasEstimate() {
+        return samples > 0;
+    }
+    
+    /**
+     * @return milliseconds the server clock is ahead of the device clock (0 without samples)
+     */
+    public synchronized long getOffset() {
+        int best = bestSample();
+        return best < 0 ? 0 : offsets[best];
+    }
+    
+    /**
+     * @return upper bound on the error of {@link #getOffset()}, or -1 without samples
+     */
+    public synchronized long getErrorBound() {
+        int best = bestSample();
+        return best < 0 ? -1 : errors[best];
+    }
+    
+    /**
+     * Convert a server timestamp to device clock time.
+     */
+    public long toDeviceTime(long serverTime) {
+        return serverTime - getOffset();
+    }
+    
+    private int bestSample() {
+        int best = -1;
+        for (int i = 0; i < samples; i++) {
+            if (best < 0 || errors[i] < errors[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
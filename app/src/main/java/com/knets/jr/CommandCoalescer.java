@@ -0,0 +1,132 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collapses queued commands that share a coalesce key before they execute.
+ *
+ * While a command is queued, a later command with the same key does not queue a
+ * second execution:
+ * - the same type (five taps on "Locate") merges into the queued one, and one
+ *   execution acks every merged id with its result;
+ * - an opposing type with the same key (LOCK then UNLOCK) replaces the queued
+ *   command, last one wins, and the replaced ids are acked as superseded.
+ *
+ * Once a group starts executing it is detached, so commands arriving after that
+ * queue a fresh execution.
+ */
+public class CommandCoalescer {
+    private static final String TAG = "KnetsCommandCoalescer";
+    
+    /**
+     * One queued execution and the command ids it answers for.
+     */
+    public static final class Group {
+        final String key;
+        ParentCommand command;
+        final List<String> mergedIds;
+        final List<String> supersededIds;
+        
+        Group(String key, ParentCommand command) {
+            this(key, command, new ArrayList<String>(), new ArrayList<String>());
+        }
+        
+        private Group(String key, ParentCommand command, List<String> mergedIds, List<String> supersededIds) {
+            this.key = key;
+            this.command = command;
+            this.mergedIds = mergedIds;
+            this.supersededIds = supersededIds;
+        }
+        
+        public ParentCommand getCommand() {
+            return command;
+        }
+        
+        /**
+         * @return ids of same-type commands that share this execution's result
+         */
+        public List<String> getMergedIds() {
+            return mergedIds;
+        }
+        
+        /**
+         * @return ids of earlier commands replaced by a later opposing one
+         */
+        public List<String> getSupersededIds() {
+            return supersededIds;
+        }
+    }
+    
+    private final Map<String, Group> queued = new HashMap<>();
+    private long mergedCount = 0;
+    private long supersededCount = 0;
+    
+    /**
+     * Offer a command for execution.
+     *
+     * @param key coalesce key, or null if the command never coalesces
+     * @return a new group to queue, or null if the command joined an already queued group
+     */
+    public synchronized Group offer(ParentCommand command, String key) {
+        if (key == null) {
+            return new Group(null, command);
+        }
+        
+        Group existing = queued.get(key);
+        if (existing == null) {
+            Group group = new Group(key, command);
+            queued.put(key, group);
+            return group;
+        }
+        
+        if (existing.command.type.equals(command.type)) {
+            existing.mergedIds.add(command.id);
+            mergedCount++;
+            Log.d(TAG, "🧲 Merged " + command.type + " " + command.id + " into " + existing.command.id);
+        } else {
+            // Opposing state change: the later command decides the outcome
+            existing.supersededIds.add(existing.command.id);
+            existing.supersededIds.addAll(existing.mergedIds);
+            supersededCount += 1 + existing.mergedIds.size();
+            existing.mergedIds.clear();
+            Log.d(TAG, "🧲 " + command.type + " " + command.id + " supersedes " + existing.command.type);
+            existing.command = command;
+        }
+        return null;
+    }
+    
+    /**
+     * Detach a group that is about to execute.
+     *
+     * @return a snapshot that later offers can no longer change
+     */
+    public synchronized Group take(Group group) {
+        release(group);
+        return new Group(group.key, group.command,
+                Collections.unmodifiableList(new ArrayList<>(group.mergedIds)),
+                Collections.unmodifiableList(new ArrayList<>(group.supersededIds)));
+    }
+    
+    /**
+     * Detach a group that will not execute, e.g. because the command stage refused it.
+     */
+    public synchronized void release(Group group) {
+        if (group.key != null && queued.get(group.key) == group) {
+            queued.remove(group.key);
+        }
+    }
+    
+    public synchronized long getMergedCount() {
+        return mergedCount;
+    }
+    
+    public synchronized long getSupersededCount() {
+        return supersededCount;
+    }
+}
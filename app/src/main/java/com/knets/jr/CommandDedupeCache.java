@@ -0,0 +1,172 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, persisted record of recently handled command ids.
+ *
+ * Lost acks and overlapping transports can deliver the same command several times.
+ * Each id is claimed here before dispatch, so a redelivery costs one map lookup
+ * instead of a GPS fix or an activity launch. Entries expire after RETENTION and the
+ * least recently seen ids are evicted beyond MAX_ENTRIES. The handler's result is
+ * kept with the status, so re-acking a redelivered command reports the same outcome.
+ */
+public class CommandDedupeCache {
+    private static final String TAG = "KnetsCommandDedupe";
+    private static final String PREF_PROCESSED_COMMANDS = "processed_command_ids";
+    static final int MAX_ENTRIES = 500;
+    static final long RETENTION = 24 * 60 * 60 * 1000L; // 24 hours, longer than any server redelivery window
+    
+    /**
+     * Status of a command that was claimed but whose handler has not returned yet.
+     */
+    public static final String STATUS_IN_PROGRESS = "in_progress";
+    
+    private static final class Record {
+        final String status;
+        final JsonObject result; // null while in progress or if the handler reported none
+        final long seenAt;
+        
+        Record(String status, JsonObject result, long seenAt) {
+            this.status = status;
+            this.result = result;
+            this.seenAt = seenAt;
+        }
+    }
+    
+    private final SharedPreferences prefs;
+    private final Map<String, Record> records = new LinkedHashMap<>(16, 0.75f, true);
+    private long duplicates = 0;
+    
+    public CommandDedupeCache(Context context) {
+        this(context.getSharedPreferences("knets_jr", Context.MODE_PRIVATE));
+    }
+    
+    CommandDedupeCache(SharedPreferences prefs) {
+        this.prefs = prefs;
+        load();
+    }
+    
+    /**
+     * Claim a command id for execution.
+     *
+     * @return null if the id is new and now claimed, otherwise the status it was
+     *         handled with ({@link #STATUS_IN_PROGRESS} while another thread runs it)
+     */
+    public synchronized String claim(String commandId) {
+        expire(System.currentTimeMillis());
+        
+        Record existing = records.get(commandId);
+        if (existing != null) {
+            duplicates++;
+            return existing.status;
+        }
+        
+        records.put(commandId, new Record(STATUS_IN_PROGRESS, null, System.currentTimeMillis()));
+        evictOverflow();
+        return null;
+    }
+    
+    /**
+     * Record the final status and result of a claimed command.
+     */
+    public synchronized void complete(String commandId, String status, JsonObject result) {
+        records.put(commandId, new Record(status, result, System.currentTimeMillis()));
+        evictOverflow();
+        save();
+    }
+    
+    /**
+     * Forget a claimed command that was not executed, so its redelivery runs it.
+     */
+    public synchronized void release(String commandId) {
+        Record existing = records.get(commandId);
+        if (existing != null && STATUS_IN_PROGRESS.equals(existing.status)) {
+            records.remove(commandId);
+        }
+    }
+    
+    /**
+     * @return the result a handled command finished with, or null
+     */
+    public synchronized JsonObject getResult(String commandId) {
+        Record existing = records.get(commandId);
+        return existing != null ? existing.result : null;
+    }
+    
+    public synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+    
+    private void expire(long now) {
+        Iterator<Record> iterator = records.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().seenAt > RETENTION) {
+                iterator.remove();
+            }
+        }
+    }
+    
+    private void evictOverflow() {
+        Iterator<String> iterator = records.keySet().iterator();
+        while (records.size() > MAX_ENTRIES && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+    
+    private void load() {
+        String json = prefs.getString(PREF_PROCESSED_COMMANDS, "");
+        if (json.isEmpty()) {
+            return;
+        }
+        
+        try {
+            long now = System.currentTimeMillis();
+            JsonArray array = ApiJson.GSON.fromJson(json, JsonArray.class);
+            for (JsonElement element : array) {
+                JsonObject object = element.getAsJsonObject();
+                long seenAt = object.get("seenAt").getAsLong();
+                if (now - seenAt <= RETENTION) {
+                    JsonObject result = object.has("result") ? object.getAsJsonObject("result") : null;
+                    records.put(object.get("id").getAsString(),
+                            new Record(object.get("status").getAsString(), result, seenAt));
+                }
+            }
+            Log.d(TAG, "Restored " + records.size() + " processed command ids");
+        } catch (Exception e) {
+            Log.e(TAG, "Discarding unreadable dedupe cache", e);
+            prefs.edit().remove(PREF_PROCESSED_COMMANDS).apply();
+        }
+    }
+    
+    private void save() {
+        JsonArray array = new JsonArray();
+        for (Map.Entry<String, Record> entry : records.entrySet()) {
+            // Commands that never finished must run again after a restart
+            if (STATUS_IN_PROGRESS.equals(entry.getValue().status)) {
+                continue;
+            }
+            JsonObject object = new JsonObject();
+            object.addProperty("id", entry.getKey());
+            object.addProperty("status", entry.getValue().status);
+            object.addProperty("seenAt", entry.getValue().seenAt);
+            if (entry.getValue().result != null) {
+                object.add("result", entry.getValue().result);
+            }
+            array.add(object);
+        }
+        
+        prefs.edit().putString(PREF_PROCESSED_COMMANDS, array.toString()).apply();
+    }
+}
@@ -0,0 +1,1432 @@
+package com.knets.jr;
+
+import android.app.KeyguardManager;
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Single parent-command engine for Knets Jr.
+ *
+ * Owns the command transport (WebSocket, then Server-Sent Events, then long-poll /
+ * interval HTTP polling), the poll schedule, command dispatch and acknowledgements.
+ * HTTP polls use the combined /sync endpoint when the server supports it, which
+ * piggybacks pending acks, queued location fixes and a status heartbeat on the poll.
+ * Without it they fall back to /poll-command, then to the legacy per-device
+ * /check-commands endpoint that {@link ServerPollingService} used to poll.
+ * While the device has no network all traffic is paused; a validated network
+ * brings an immediate poll and outbox flush.
+ * Hosted by {@link BulletproofPollingService}; {@link ServerPollingService} delegates
+ * to that service so only one engine ever runs per device.
+ */
+public class CommandEngine implements CommandWebSocket.Listener, CommandEventStream.Listener,
+        TelemetryOutbox.Listener, NetworkMonitor.Listener {
+    private static final String TAG = "KnetsCommandEngine";
+    private static final int MAX_CONSECUTIVE_ERRORS = 10;
+    private static final int MAX_BACKOFF_TIME = 300000; // 5 minutes
+    private static final int POLL_RETRY_BASE = 5000; // 5 seconds, doubled per consecutive error
+    private static final int ACK_RETRY_BASE = 2000; // 2 seconds
+    private static final int ACK_RETRY_MAX = 60000; // 1 minute
+    private static final int MAX_ACK_BATCH = 50;
+    private static final int ACK_RECEIPT_TIMEOUT = 30000; // socket acks without a receipt by then go over HTTP
+    private static final int RECOVERY_DELAY = 60000; // 1 minute
+    private static final int LONG_POLL_HOLD_SECONDS = 25; // server holds request until command or timeout
+    private static final int LONG_POLL_READ_MARGIN_SECONDS = 15;
+    private static final int LONG_POLL_REPROBE_CYCLES = 20; // retry long-poll every ~10 minutes
+    private static final String LONG_POLL_HEADER = "X-Knets-Long-Poll";
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final String SYNC_PATH = "/api/knets-jr/sync";
+    private static final String POLL_PATH = "/api/knets-jr/poll-command";
+    private static final String LEGACY_POLL_PATH = "/api/knets-jr/check-commands/"; // old ServerPollingService endpoint
+    private static final int PUSH_RETRY_INTERVAL = 600000; // retry push transports 10 minutes after fallback
+    private static final int OFFLINE_RECHECK_INTERVAL = 300000; // safety net if a network callback is missed
+    private static final int PRE_WARM_LEAD = 3000; // open the connection this long before a scheduled poll
+    private static final int LOCATION_FIX_TIMEOUT = 60000; // GPS cold start plus network and IP fallbacks
+    private static final String ERROR_INTERRUPTED = "INTERRUPTED";
+    private static final String ERROR_DEVICE_ADMIN_INACTIVE = "DEVICE_ADMIN_INACTIVE";
+    
+    /**
+     * Receives user-visible status changes, e.g. for the foreground notification.
+     */
+    public interface StatusListener {
+        void onStatusChanged(String status);
+    }
+    
+    /**
+     * An ack sent over the command socket, kept claimed until the server receipts it.
+     */
+    private static final class SocketAck {
+        final AckOutbox.Entry entry;
+        final long sentAt;
+        
+        SocketAck(AckOutbox.Entry entry, long sentAt) {
+            this.entry = entry;
+            this.sentAt = sentAt;
+        }
+    }
+    
+    private final Context context;
+    private final StatusListener statusListener;
+    private final PollingIntervalPolicy intervalPolicy;
+    private final RetryPolicy pollRetry;
+    private final RetryPolicy ackRetry;
+    private final AckOutbox ackOutbox;
+    private final CommandRegistry commandRegistry;
+    private final CommandDedupeCache dedupeCache;
+    private final CommandCoalescer coalescer = new CommandCoalescer();
+    private final ClockOffsetEstimator clockOffset = new ClockOffsetEstimator();
+    private final CommandLatencyTracker latencyTracker = new CommandLatencyTracker(clockOffset);
+    private CommandJournal commandJournal;
+    private CommandExecutor commandExecutor;
+    
+    private ScheduledExecutorService scheduler;
+    private PollScheduler pollScheduler;
+    private OkHttpClient httpClient;
+    private OkHttpClient longPollClient;
+    private CommandWebSocket commandSocket;
+    private CommandEventStream commandStream;
+    private NetworkMonitor networkMonitor;
+    private String deviceImei;
+    
+    private volatile boolean running = false;
+    private volatile boolean longPollSupported = true;
+    private volatile String commandQueueEtag; // version token of the last processed command queue
+    private volatile boolean redeliveryPending = false; // refused commands wait on the server queue
+    private volatile boolean syncSupported = true;
+    private volatile boolean pollCommandSupported = true; // otherwise the legacy check-commands endpoint
+    private volatile Call longPollCall; // in-flight held request, cancelled to flush urgent uploads
+    private volatile boolean batchAckSupported = true;
+    private volatile boolean trafficPaused = false; // no network: no polls, pushes or uploads
+    private volatile boolean socketAcksSupported = true; // server sends ack receipts on the socket
+    private final Map<String, SocketAck> socketAcks = new LinkedHashMap<>(); // sent, awaiting a receipt
+    private boolean receiptCheckScheduled = false;
+    private boolean ackRetryScheduled = false;
+    private int fixedCyclesSinceProbe = 0;
+    private int consecutiveErrors = 0;
+    
+    public CommandEngine(Context context, StatusListener statusListener) {
+        this.context = context.getApplicationContext();
+        this.statusListener = statusListener;
+        this.intervalPolicy = new AdaptivePollingIntervalPolicy(PollingIntervalPolicy.Clock.SYSTEM,
+                (intervalMillis, reason) -> Log.i(TAG, "⏱️ Poll interval "
+                        + (intervalMillis / 1000) + "s (" + reason + ")"));
+        this.pollRetry = RetryPolicy.forEndpoint(RetryPolicy.ENDPOINT_POLL, POLL_RETRY_BASE, MAX_BACKOFF_TIME);
+        this.ackRetry = RetryPolicy.forEndpoint(RetryPolicy.ENDPOINT_ACK, ACK_RETRY_BASE, ACK_RETRY_MAX);
+        this.ackOutbox = new AckOutbox(context);
+        this.commandRegistry = createCommandRegistry();
+        this.dedupeCache = new CommandDedupeCache(context);
+    }
+    
+    public synchronized void start() {
+        if (running) {
+            Log.d(TAG, "⚠️ Command engine already running");
+            return;
+        }
+        
+        running = true;
+        consecutiveErrors = 0;
+        loadDeviceIdentifier();
+        initializeHttpClient();
+        
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        pollScheduler = new PollScheduler(scheduler, this::performPollingCycle);
+        pollScheduler.setPreWarm(PRE_WARM_LEAD, this::preWarmConnection);
+        
+        // Finish commands a previous process received but never completed, before polling
+        commandExecutor = new CommandExecutor();
+        commandJournal = new CommandJournal(context);
+        scheduler.execute(this::replayJournal);
+        
+        // Prefer the WebSocket channel; HTTP polling pauses while a push transport is connected
+        commandSocket = new CommandWebSocket(httpClient, scheduler,
+                getServerBaseUrl() + "/api/knets-jr/command-socket?deviceImei=" + deviceImei, this);
+        commandStream = new CommandEventStream(context, httpClient, scheduler,
+                getServerBaseUrl() + "/api/knets-jr/command-stream/" + deviceImei, this);
+        networkMonitor = new NetworkMonitor(context, this);
+        trafficPaused = !networkMonitor.start();
+        if (trafficPaused) {
+            Log.w(TAG, "📴 Starting offline, command traffic paused");
+            commandSocket.suspend();
+        } else {
+            commandSocket.connect();
+        }
+        
+        // Location fixes now ride on the next sync instead of separate POSTs
+        TelemetryOutbox.get().setListener(this);
+        
+        // Schedule initial poll immediately
+        pollScheduler.requestPoll(0);
+        
+        Log.i(TAG, "✅ Command engine started for device " + deviceImei);
+    }
+    
+    public synchronized void stop() {
+        running = false;
+        
+        // Nothing will drain the outbox any more; send leftovers on their own
+        TelemetryOutbox.get().setListener(null);
+        if (httpClient != null) {
+            flushUploadsIndividually(TelemetryOutbox.get().drain());
+        }
+        
+        if (networkMonitor != null) {
+            networkMonitor.stop();
+        }
+        if (commandSocket != null) {
+            commandSocket.close();
+        }
+        if (commandStream != null) {
+            commandStream.close();
+        }
+        if (pollScheduler != null) {
+            pollScheduler.shutdown();
+            Log.i(TAG, "📊 Polls completed: " + pollScheduler.getCompletedPollCount()
+                    + ", triggers merged: " + pollScheduler.getMergedTriggerCount()
+                    + ", dropped: " + pollScheduler.getDroppedTriggerCount()
+                    + ", acks pending: " + ackOutbox.size()
+                    + ", acks dropped: " + ackOutbox.getDroppedCount());
+        }
+        if (commandExecutor != null) {
+            commandExecutor.shutdown();
+            commandExecutor.logMetrics();
+        }
+        if (commandJournal != null) {
+            commandJournal.close();
+        }
+        commandRegistry.logMetrics();
+        Log.i(TAG, "📊 Duplicate commands skipped: " + dedupeCache.getDuplicateCount()
+                + ", merged: " + coalescer.getMergedCount()
+                + ", superseded: " + coalescer.getSupersededCount());
+        latencyTracker.logMetrics();
+        KnetsHttp.logMetrics();
+        if (scheduler != null && !scheduler.isShutdown()) {
+            scheduler.shutdown();
+        }
+        
+        Log.i(TAG, "🛑 Command engine stopped");
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * @return number of poll triggers that were merged into a pending poll or dropped
+     *         because a poll was already in flight
+     */
+    public long getCoalescedPollTriggerCount() {
+        PollScheduler current = pollScheduler;
+        return current != null ? current.getMergedTriggerCount() + current.getDroppedTriggerCount() : 0;
+    }
+    
+    private void initializeHttpClient() {
+        httpClient = KnetsHttp.forEndpoint(RetryPolicy.ENDPOINT_POLL);
+        
+        // Long-poll requests share the connection pool but must outlive the server hold time
+        longPollClient = httpClient.newBuilder()
+                .readTimeout(LONG_POLL_HOLD_SECONDS + LONG_POLL_READ_MARGIN_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+    
+    private void loadDeviceIdentifier() {
+        SharedPreferences prefs = context.getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
+        deviceImei = prefs.getString("device_imei", "");
+        
+        if (deviceImei.isEmpty()) {
+            deviceImei = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+            Log.d(TAG, "📱 Using Android ID as device identifier: " + deviceImei);
+        }
+    }
+    
+    // ---- Schedule ----
+    
+    /**
+     * One poll cycle, run by {@link PollScheduler}. Every path reports completion with
+     * the delay until the next cycle, so there is never more than one poll chain.
+     */
+    private void performPollingCycle(long pollId) {
+        if (!running) {
+            Log.d(TAG, "🛑 Engine stopped, ending polling");
+            return;
+        }
+        
+        if (trafficPaused) {
+            if (!networkMonitor.isOnline()) {
+                Log.d(TAG, "📴 Offline, skipping poll");
+                pollScheduler.onPollCompleted(pollId, OFFLINE_RECHECK_INTERVAL);
+                return;
+            }
+            // A network without validated access appeared; try it on the regular schedule
+            resumeTransports();
+        }
+        
+        if (commandExecutor.isSaturated()) {
+            // Backpressure: fetching more commands would only have them rejected
+            Log.w(TAG, "🚧 Command stage full, deferring poll");
+            // Commands refused while full must come back with a full response, not a 304
+            commandQueueEtag = null;
+            pollScheduler.onPollCompleted(pollId, nextPollingInterval());
+            return;
+        }
+        
+        if (!syncSupported && ackOutbox.isFull()) {
+            // Backpressure: new commands would push acks out; let flushAcks catch up first
+            Log.w(TAG, "🚧 Ack outbox full, deferring poll");
+            flushAcks();
+            pollScheduler.onPollCompleted(pollId, nextPollingInterval());
+            return;
+        }
+        
+        boolean pushConnected = isPushConnected();
+        if (pushConnected && !hasSyncableUploads() && !redeliveryPending) {
+            // Commands arrive over a push transport; just keep the poll chain alive as a fallback
+            pollScheduler.onPollCompleted(pollId, nextPollingInterval());
+            return;
+        }
+        
+        try {
+            // Upload-only syncs while a push transport is up never hold the request open
+            // The legacy endpoint never holds requests
+            checkForParentCommands(pollId, !pushConnected && (syncSupported || pollCommandSupported)
+                    && shouldLongPoll());
+        } catch (Exception e) {
+            pollScheduler.onPollCompleted(pollId, handlePollingError(e));
+        }
+    }
+    
+    /**
+     * Runs shortly before each scheduled poll; the poll then finds a warm connection.
+     */
+    private void preWarmConnection() {
+        if (!running || trafficPaused || (isPushConnected() && !hasSyncableUploads())) {
+            return; // that poll will not touch the network
+        }
+        KnetsHttp.preWarm(getServerBaseUrl());
+    }
+    
+    private long nextPollingInterval() {
+        return intervalPolicy.nextInterval(DeviceStateMonitor.snapshot(context));
+    }
+    
+    private boolean isPushConnected() {
+        return (commandSocket != null && commandSocket.isConnected())
+                || (commandStream != null && commandStream.isConnected());
+    }
+    
+    private boolean shouldLongPoll() {
+        if (longPollSupported) {
+            return true;
+        }
+        
+        // Periodically probe again in case the server gained long-poll support
+        if (++fixedCyclesSinceProbe >= LONG_POLL_REPROBE_CYCLES) {
+            fixedCyclesSinceProbe = 0;
+            Log.d(TAG, "🔁 Re-probing server for long-poll support");
+            return true;
+        }
+        return false;
+    }
+    
+    // ---- HTTP poll transport ----
+    
+    private void checkForParentCommands(long pollId, boolean longPoll) {
+        boolean sync = syncSupported;
+        boolean legacy = !sync && !pollCommandSupported;
+        List<AckOutbox.Entry> acks = sync
+                ? ackOutbox.claim(MAX_ACK_BATCH) : Collections.<AckOutbox.Entry>emptyList();
+        List<TelemetryOutbox.Entry> telemetry = sync
+                ? TelemetryOutbox.get().drain() : Collections.<TelemetryOutbox.Entry>emptyList();
+        
+        Request.Builder requestBuilder = pollRequest(getServerBaseUrl(), deviceImei, sync, legacy,
+                commandQueueEtag, longPoll);
+        if (sync) {
+            requestBuilder.post(okhttp3.RequestBody.create(
+                    buildSyncBody(acks, telemetry).toString(),
+                    okhttp3.MediaType.parse("application/json")));
+        }
+        
+        Request request = requestBuilder.build();
+        OkHttpClient client = longPoll ? longPollClient : httpClient;
+        
+        Log.d(TAG, "🔍 Checking for parent commands at " + System.currentTimeMillis()
+                + (longPoll ? " (long-poll)" : "")
+                + (sync ? " (sync: " + acks.size() + " acks, " + telemetry.size() + " fixes)" : ""));
+        
+        Call call = client.newCall(request);
+        if (longPoll) {
+            longPollCall = call;
+        }
+        
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                clearLongPollCall(call);
+                requeueUploads(acks, telemetry);
+                
+                if (call.isCanceled() && running) {
+                    // Held request was cut short (queued upload, network change) - not an error
+                    Log.d(TAG, "⚡ Long-poll released early");
+                    pollScheduler.onPollCompleted(pollId, 0);
+                    return;
+                }
+                
+                Log.e(TAG, "❌ Network failure during command check", e);
+                pollScheduler.onPollCompleted(pollId, handleNetworkError(e));
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                clearLongPollCall(call);
+                if (!longPoll) {
+                    // Held requests say nothing about one-way delay, so only plain polls are sampled
+                    clockOffset.onResponse(response);
+                }
+                long nextDelay;
+                try {
+                    if (sync && isEndpointMissing(response.code())) {
+                        Log.w(TAG, "📡 Sync endpoint not supported, using separate poll and uploads");
+                        syncSupported = false;
+                        ackOutbox.release(acks);
+                        flushUploadsIndividually(telemetry);
+                        nextDelay = 0;
+                    } else if (!sync && !legacy && isEndpointMissing(response.code())) {
+                        // Servers that predate poll-command only serve the old per-device endpoint
+                        Log.w(TAG, "📡 poll-command not supported, using legacy check-commands");
+                        pollCommandSupported = false;
+                        nextDelay = 0;
+                    } else if (response.code() == HTTP_NOT_MODIFIED) {
+                        // Command queue unchanged - nothing to download or parse
+                        Log.d(TAG, "💤 Command queue unchanged (304)");
+                        ackOutbox.confirm(acks);
+                        nextDelay = onPollSucceeded(longPoll, response);
+                    } else if (!response.isSuccessful()) {
+                        Log.e(TAG, "❌ HTTP error " + response.code() + ": " + response.message());
+                        requeueUploads(acks, telemetry);
+                        nextDelay = handleHttpError(response);
+                    } else {
+                        // Uploads were accepted even if the command payload turns out to be unreadable
+                        ackOutbox.confirm(acks);
+                        // This response hands back the server's queue; a refusal in it sets the flag again
+                        redeliveryPending = false;
+                        boolean accepted = response.body() == null
+                                || processServerResponse(response.body().charStream());
+                        // Only a fully accepted queue may be skipped with If-None-Match next time
+                        commandQueueEtag = accepted ? response.header("ETag") : null;
+                        nextDelay = onPollSucceeded(longPoll, response);
+                    }
+                    
+                } catch (Exception e) {
+                    Log.e(TAG, "❌ Error processing response", e);
+                    nextDelay = handlePollingError(e);
+                } finally {
+                    response.close();
+                }
+                pollScheduler.onPollCompleted(pollId, nextDelay);
+            }
+        });
+    }
+    
+    /**
+     * Address and headers of one poll; for /sync the caller adds the upload body.
+     */
+    static Request.Builder pollRequest(String baseUrl, String deviceImei, boolean sync, boolean legacy,
+                                       String etag, boolean longPoll) {
+        String serverUrl;
+        if (sync) {
+            serverUrl = baseUrl + SYNC_PATH + "?deviceImei=" + deviceImei;
+        } else if (!legacy) {
+            serverUrl = baseUrl + POLL_PATH + "?deviceImei=" + deviceImei;
+        } else {
+            serverUrl = baseUrl + LEGACY_POLL_PATH + deviceImei;
+        }
+        
+        Request.Builder requestBuilder = new Request.Builder()
+                .addHeader("User-Agent", "KnetsJr/Bulletproof");
+        
+        // Let the server answer 304 with no body when the queue is unchanged
+        if (etag != null) {
+            requestBuilder.addHeader("If-None-Match", etag);
+        }
+        
+        if (longPoll) {
+            serverUrl += "&wait=" + LONG_POLL_HOLD_SECONDS;
+            requestBuilder.addHeader(LONG_POLL_HEADER, String.valueOf(LONG_POLL_HOLD_SECONDS));
+        }
+        
+        return requestBuilder.url(serverUrl);
+    }
+    
+    private long onPollSucceeded(boolean longPoll, Response response) {
+        // Reset error counter on successful response
+        consecutiveErrors = 0;
+        pollRetry.onSuccess();
+        int pendingAcks = ackOutbox.size();
+        notifyStatus("✅ Connected • Ready for parent requests"
+                + (pendingAcks > 0 ? " • " + pendingAcks + " acks pending" : ""));
+        
+        long nextDelay = longPoll
+                ? onLongPollCompleted(response.header(LONG_POLL_HEADER) != null)
+                : nextPollingInterval();
+        
+        // Acks for the commands just received go out on an immediate follow-up sync
+        return hasSyncableUploads() ? 0 : nextDelay;
+    }
+    
+    // ---- Sync uploads ----
+    
+    private JsonObject buildSyncBody(List<AckOutbox.Entry> acks, List<TelemetryOutbox.Entry> telemetry) {
+        JsonObject body = new JsonObject();
+        body.addProperty("deviceImei", deviceImei);
+        body.add("acks", toJsonArray(acks));
+        if (!acks.isEmpty()) {
+            body.add("latencyStats", latencyTracker.snapshot());
+        }
+        
+        JsonArray locationArray = new JsonArray();
+        for (TelemetryOutbox.Entry entry : telemetry) {
+            JsonObject location = new JsonObject();
+            location.addProperty("endpoint", entry.endpoint);
+            location.add("data", entry.data);
+            locationArray.add(location);
+        }
+        body.add("locations", locationArray);
+        
+        body.add("status", buildStatusHeartbeat());
+        return body;
+    }
+    
+    private JsonObject buildStatusHeartbeat() {
+        PollingIntervalPolicy.DeviceState state = DeviceStateMonitor.snapshot(context);
+        
+        JsonObject status = new JsonObject();
+        status.addProperty("timestamp", System.currentTimeMillis());
+        status.addProperty("appVersion", BuildConfig.VERSION_NAME);
+        status.addProperty("batteryPercent", state.batteryPercent);
+        status.addProperty("charging", state.charging);
+        status.addProperty("interactive", state.interactive);
+        status.addProperty("meteredCellular", state.meteredCellular);
+        status.addProperty("ackQueueDepth", ackOutbox.size());
+        status.add("connections", KnetsHttp.snapshot());
+        status.addProperty("transport", commandSocket != null && commandSocket.isConnected() ? "websocket"
+                : commandStream != null && commandStream.isConnected() ? "sse" : "poll");
+        return status;
+    }
+    
+    @Override
+    public void onTelemetryQueued() {
+        if (!running || trafficPaused) {
+            return;
+        }
+        
+        if (!syncSupported) {
+            flushUploadsIndividually(TelemetryOutbox.get().drain());
+            return;
+        }
+        
+        requestUploadSync();
+    }
+    
+    private void requestUploadSync() {
+        // A held long-poll would delay the upload by up to the hold time; release it early
+        Call heldCall = longPollCall;
+        if (heldCall != null) {
+            heldCall.cancel();
+        } else {
+            pollScheduler.requestFollowUpPoll();
+        }
+    }
+    
+    /**
+     * @return true if the next poll would carry uploads, i.e. /sync is in use and something waits
+     */
+    private boolean hasSyncableUploads() {
+        // Without /sync the poll carries nothing; flushAcks and its retry policy drain the outbox
+        return syncSupported && (ackOutbox.hasUnclaimed() || !TelemetryOutbox.get().isEmpty());
+    }
+    
+    private void requeueUploads(List<AckOutbox.Entry> acks, List<TelemetryOutbox.Entry> telemetry) {
+        ackOutbox.release(acks);
+        if (!telemetry.isEmpty()) {
+            TelemetryOutbox.get().requeue(telemetry);
+        }
+    }
+    
+    private void flushUploadsIndividually(List<TelemetryOutbox.Entry> telemetry) {
+        flushAcks();
+        
+        for (TelemetryOutbox.Entry entry : telemetry) {
+            postTelemetry(entry);
+        }
+    }
+    
+    private void postTelemetry(TelemetryOutbox.Entry entry) {
+        okhttp3.RequestBody body = okhttp3.RequestBody.create(
+                entry.data.toString(),
+                okhttp3.MediaType.parse("application/json"));
+        
+        Request request = new Request.Builder()
+                .url(getServerBaseUrl() + "/api/knets-jr/" + entry.endpoint)
+                .post(body)
+                .build();
+        
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.w(TAG, "⚠️ Failed to send " + entry.endpoint + " data", e);
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (!response.isSuccessful()) {
+                    Log.w(TAG, "⚠️ " + entry.endpoint + " failed: HTTP " + response.code());
+                }
+                response.close();
+            }
+        });
+    }
+    
+    private void clearLongPollCall(Call call) {
+        if (longPollCall == call) {
+            longPollCall = null;
+        }
+    }
+    
+    private static boolean isEndpointMissing(int statusCode) {
+        return statusCode == 404 || statusCode == 405 || statusCode == 501;
+    }
+    
+    /**
+     * Decide the next delay after a long-poll request returns. The server echoes the
+     * long-poll header when it honoured the hold; otherwise fall back to interval polling.
+     */
+    private long onLongPollCompleted(boolean heldByServer) {
+        if (heldByServer) {
+            if (!longPollSupported) {
+                Log.i(TAG, "⚡ Server supports long-poll, switching to instant re-arm");
+            }
+            longPollSupported = true;
+            return 0;
+        }
+        
+        if (longPollSupported) {
+            Log.i(TAG, "⏱️ Long-poll not supported, using interval polling");
+        }
+        longPollSupported = false;
+        fixedCyclesSinceProbe = 0;
+        return nextPollingInterval();
+    }
+    
+    /**
+     * Parse the poll response straight from the socket, handing each command to the
+     * command stage as soon as it is read. Only one command is held in memory at a
+     * time, however large a backlog the server sends.
+     *
+     * @return false if the command stage refused any command in the response
+     */
+    private boolean processServerResponse(Reader body) throws IOException {
+        // JsonReader throws EOFException on empty input, so a 204 or an empty
+        // "no commands" reply is recognised before handing the stream over
+        PushbackReader input = new PushbackReader(body);
+        int first;
+        do {
+            first = input.read();
+        } while (first != -1 && Character.isWhitespace(first));
+        if (first == -1) {
+            return true;
+        }
+        input.unread(first);
+        
+        JsonReader reader = new JsonReader(input);
+        
+        long receivedAt = System.currentTimeMillis();
+        int received = 0;
+        int refused = 0;
+        
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"commands".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (received == 0) {
+                    intervalPolicy.onCommandActivity();
+                }
+                received++;
+                
+                ParentCommand command;
+                try {
+                    command = ApiJson.COMMAND_ADAPTER.read(reader);
+                } catch (JsonParseException e) {
+                    // The malformed element was consumed, so the rest of the batch still parses
+                    Log.e(TAG, "❌ Skipping malformed command", e);
+                    continue;
+                }
+                if (!submitCommand(command, receivedAt, "poll")) {
+                    refused++;
+                }
+                // Start executing while the rest is still being read, so a long backlog
+                // drains through the stage instead of overflowing it
+                commandExecutor.drain();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        
+        if (received > 0) {
+            Log.i(TAG, "📨 Received " + received + " commands from parent");
+        }
+        return refused == 0;
+    }
+    
+    // ---- Push transports ----
+    
+    @Override
+    public void onSocketConnected() {
+        Log.i(TAG, "🔌 Command socket active, HTTP polling paused");
+        socketAcksSupported = true;
+        if (commandStream != null) {
+            commandStream.close();
+        }
+        notifyStatus("✅ Connected • Ready for parent requests");
+        flushAcks();
+    }
+    
+    @Override
+    public void onSocketCommands(JsonArray commands) {
+        if (commands.size() > 0) {
+            Log.i(TAG, "📨 Received " + commands.size() + " commands over socket");
+            processParentCommands(commands, "websocket");
+        }
+    }
+    
+    @Override
+    public void onSocketAckReceipt(List<String> commandIds) {
+        List<AckOutbox.Entry> receipted = new ArrayList<>();
+        synchronized (socketAcks) {
+            for (String commandId : commandIds) {
+                SocketAck ack = socketAcks.remove(commandId);
+                if (ack != null) {
+                    receipted.add(ack.entry);
+                }
+            }
+        }
+        ackOutbox.confirm(receipted);
+        if (!receipted.isEmpty()) {
+            Log.d(TAG, "✅ " + receipted.size() + " socket acks receipted");
+        }
+    }
+    
+    @Override
+    public void onSocketDisconnected() {
+        if (releaseSocketAcks(Long.MAX_VALUE) > 0 && running && scheduler != null) {
+            try {
+                scheduler.execute(this::flushAcks);
+            } catch (RejectedExecutionException e) {
+                // Engine stopped; the acks stay in the outbox for the next start
+            }
+        }
+    }
+    
+    @Override
+    public void onSocketFallbackToPolling() {
+        Log.w(TAG, "📡 Command socket unavailable, trying event stream");
+        if (commandStream != null) {
+            commandStream.open();
+        }
+        
+        if (scheduler != null && !scheduler.isShutdown()) {
+            scheduler.schedule(() -> {
+                if (running && commandSocket != null) {
+                    commandSocket.connect();
+                }
+            }, PUSH_RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    @Override
+    public boolean onStreamCommands(JsonArray commands) {
+        if (commands.size() == 0) {
+            return true;
+        }
+        Log.i(TAG, "📨 Received " + commands.size() + " commands over event stream");
+        return processParentCommands(commands, "sse");
+    }
+    
+    @Override
+    public void onStreamUnsupported() {
+        Log.w(TAG, "📡 Event stream unsupported, continuing with HTTP polling");
+    }
+    
+    // ---- Connectivity ----
+    
+    @Override
+    public void onNetworkLost() {
+        if (!running) {
+            return;
+        }
+        
+        Log.w(TAG, "📴 Network lost, pausing command traffic");
+        trafficPaused = true;
+        notifyStatus("📴 Offline, waiting for network");
+        
+        if (commandSocket != null) {
+            commandSocket.suspend();
+        }
+        if (commandStream != null) {
+            commandStream.suspend();
+        }
+        // Cannot complete without a network; the poll chain parks until a network returns
+        Call heldCall = longPollCall;
+        if (heldCall != null) {
+            heldCall.cancel();
+        }
+    }
+    
+    @Override
+    public void onNetworkValidated() {
+        if (!running || scheduler == null || scheduler.isShutdown()) {
+            return;
+        }
+        
+        Log.i(TAG, "📶 Validated network, resuming command traffic");
+        // Pooled connections, DNS answers and any held request belong to the previous network
+        KnetsHttp.onNetworkChanged();
+        resumeTransports();
+        
+        consecutiveErrors = 0;
+        long retryAfter = pollRetry.remainingRetryAfter();
+        if (retryAfter > 0) {
+            // The server asked us to stay away; going offline does not change that
+            pollScheduler.requestPoll(retryAfter);
+        } else {
+            requestUploadSync();
+        }
+        
+        if (!syncSupported) {
+            flushUploadsIndividually(TelemetryOutbox.get().drain());
+        }
+    }
+    
+    private void resumeTransports() {
+        trafficPaused = false;
+        if (commandSocket != null) {
+            commandSocket.resume();
+        }
+        if (commandStream != null) {
+            commandStream.resume();
+        }
+    }
+    
+    // ---- Dispatch ----
+    
+    /**
+     * Hand parsed commands to the command stage. Runs on network threads, so nothing
+     * here executes a handler or blocks on disk.
+     */
+    /**
+     * @return false if the command stage refused any of the pushed commands
+     */
+    private boolean processParentCommands(JsonArray commands, String transport) {
+        long receivedAt = System.currentTimeMillis();
+        intervalPolicy.onCommandActivity();
+        
+        int refused = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            try {
+                if (!submitCommand(ApiJson.COMMAND_ADAPTER.fromJsonTree(commands.get(i)), receivedAt, transport)) {
+                    refused++;
+                }
+            } catch (JsonParseException e) {
+                Log.e(TAG, "❌ Skipping malformed command", e);
+            }
+        }
+        
+        // Queue the whole batch first so urgent commands overtake earlier telemetry
+        commandExecutor.drain();
+        
+        if (refused > 0) {
+            // A push is never resent, so fetch the refused commands with a poll once the stage has room
+            Log.w(TAG, "🚧 " + refused + " " + transport + " commands refused, polling for redelivery");
+            pollScheduler.requestFollowUpPoll();
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return false if the command stage refused the command and it must be redelivered
+     */
+    private boolean submitCommand(ParentCommand parsed, long receivedAt, String transport) {
+        try {
+            String previousStatus = dedupeCache.claim(parsed.id);
+            if (previousStatus != null) {
+                handleDuplicateCommand(parsed.id, parsed.type, previousStatus);
+                return true;
+            }
+            
+            latencyTracker.onReceived(parsed, transport, receivedAt);
+            commandJournal.received(parsed.id, parsed.payload);
+            
+            CommandRegistry.Definition definition = commandRegistry.get(parsed.type);
+            CommandCoalescer.Group group = coalescer.offer(parsed,
+                    definition != null ? definition.coalesceKey : null);
+            if (group == null) {
+                return true; // joined an execution that is already queued
+            }
+            
+            CommandRegistry.Priority priority = definition != null
+                    ? definition.priority : CommandRegistry.Priority.TELEMETRY;
+            if (!commandExecutor.submit(priority, receivedAt, () -> executeGroup(coalescer.take(group)))) {
+                // Left unacked on the server queue; a poll fetches them again once the backlog
+                // clears, even while a push transport is connected
+                CommandCoalescer.Group refused = coalescer.take(group);
+                for (String commandId : allIds(refused)) {
+                    commandJournal.done(commandId);
+                    dedupeCache.release(commandId);
+                    latencyTracker.forget(commandId);
+                }
+                // An unchanged queue would answer 304 and never hand the refused commands back
+                commandQueueEtag = null;
+                redeliveryPending = true;
+                return false;
+            }
+            
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Error processing individual command", e);
+        }
+        return true;
+    }
+    
+    private void executeGroup(CommandCoalescer.Group group) {
+        // Replaced by a later command, so nothing to wait for
+        for (String commandId : group.getSupersededIds()) {
+            completeCommand(commandId, CommandRegistry.STATUS_SUPERSEDED, null);
+        }
+        
+        ParentCommand command = group.getCommand();
+        Log.i(TAG, "🎯 Processing command: " + command.type);
+        commandJournal.executing(command.id);
+        latencyTracker.onDispatched(command.id);
+        
+        // The lane thread moves on; the ack goes out when the handler reports its outcome
+        commandRegistry.dispatch(command.type, command.payload, scheduler,
+                (status, result) -> onCommandFinished(group, status, result));
+    }
+    
+    private void onCommandFinished(CommandCoalescer.Group group, String status, JsonObject result) {
+        ScheduledExecutorService current = scheduler;
+        try {
+            // Results can arrive on the main thread; the ack write is disk I/O
+            current.execute(() -> {
+                ParentCommand command = group.getCommand();
+                CommandResults.get().forget(command.id);
+                completeCommand(command.id, status, result);
+                
+                // One execution answers for every merged duplicate
+                for (String commandId : group.getMergedIds()) {
+                    completeCommand(commandId, status, result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Engine stopped; the journal still holds the command for replay on the next start
+            Log.w(TAG, "⚠️ " + group.getCommand().type + " finished after shutdown, left to journal replay");
+        }
+    }
+    
+    private void completeCommand(String commandId, String status, JsonObject result) {
+        dedupeCache.complete(commandId, status, result);
+        
+        // Acknowledge with the outcome so unknown types are not reported as done
+        acknowledgeCommand(commandId, status, result, latencyTracker.onCompleted(commandId));
+        commandJournal.done(commandId);
+    }
+    
+    private static List<String> allIds(CommandCoalescer.Group group) {
+        List<String> ids = new ArrayList<>();
+        ids.add(group.getCommand().id);
+        ids.addAll(group.getMergedIds());
+        ids.addAll(group.getSupersededIds());
+        return ids;
+    }
+    
+    private void replayJournal() {
+        JsonArray replay = new JsonArray();
+        
+        for (CommandJournal.PendingCommand pending : commandJournal.recover()) {
+            try {
+                String commandType = pending.command.get("type").getAsString();
+                String commandId = pending.command.get("id").getAsString();
+                CommandRegistry.Definition definition = commandRegistry.get(commandType);
+                
+                if (!pending.canReplay(definition)) {
+                    // It may have partly run; repeating a non-idempotent action is worse than reporting it
+                    Log.w(TAG, "⚠️ " + commandType + " " + commandId + " was interrupted, reporting failure");
+                    JsonObject error = CommandRegistry.error(ERROR_INTERRUPTED, "Interrupted by a process restart");
+                    dedupeCache.complete(commandId, CommandRegistry.STATUS_FAILED, error);
+                    acknowledgeCommand(commandId, CommandRegistry.STATUS_FAILED, error, null);
+                    commandJournal.done(commandId);
+                    continue;
+                }
+                replay.add(pending.command);
+            } catch (Exception e) {
+                Log.e(TAG, "❌ Skipping unreadable journaled command", e);
+            }
+        }
+        
+        if (replay.size() > 0) {
+            Log.i(TAG, "🔁 Replaying " + replay.size() + " unfinished commands from journal");
+            processParentCommands(replay, "replay");
+        }
+    }
+    
+    private void handleDuplicateCommand(String commandId, String commandType, String previousStatus) {
+        if (CommandDedupeCache.STATUS_IN_PROGRESS.equals(previousStatus)) {
+            // Another transport delivered it first and is still running it; that run acks
+            Log.d(TAG, "♻️ Command " + commandId + " already executing, skipping");
+            return;
+        }
+        
+        // Redelivery usually means the ack was lost, so only the ack is repeated
+        Log.d(TAG, "♻️ Duplicate " + commandType + " " + commandId + ", re-acking as " + previousStatus);
+        JsonObject result = dedupeCache.getResult(commandId);
+        try {
+            // Called on the network thread; the outbox write is disk I/O
+            scheduler.execute(() -> acknowledgeCommand(commandId, previousStatus, result, null));
+        } catch (RejectedExecutionException e) {
+            // Engine stopped; the server redelivers the command and the re-ack is repeated then
+            Log.w(TAG, "⚠️ Duplicate " + commandId + " arrived after shutdown, not re-acked");
+        }
+    }
+    
+    private CommandRegistry createCommandRegistry() {
+        // Lock state is last-wins, so repeated lock/unlock commands are safe to collapse
+        return new CommandRegistry()
+                .register("LOCK_DEVICE", CommandRegistry.Priority.SECURITY, true, "device_lock", 5000,
+                        (command, completion) -> handleDeviceLockCommand(completion))
+                .register("UNLOCK_DEVICE", CommandRegistry.Priority.SECURITY, true, "device_lock", 5000,
+                        (command, completion) -> handleDeviceUnlockCommand(completion))
+                .register("ENABLE_LOCATION", CommandRegistry.Priority.CONTROL, true, "ENABLE_LOCATION", 5000,
+                        (command, completion) -> handleLocationEnableCommand(completion))
+                .register("REQUEST_LOCATION", CommandRegistry.Priority.TELEMETRY, true, "REQUEST_LOCATION",
+                        LOCATION_FIX_TIMEOUT, this::handleLocationRequestCommand);
+    }
+    
+    private void handleLocationEnableCommand(CommandRegistry.Completion completion) {
+        Log.i(TAG, "🌍 Parent enabled location services");
+        
+        startServiceCompat(new Intent(context, LocationService.class));
+        notifyStatus("🌍 Location services enabled");
+        
+        JsonObject result = new JsonObject();
+        result.addProperty("locationServiceStarted", true);
+        result.addProperty("locationEnabled", isLocationEnabled());
+        completion.complete(CommandRegistry.STATUS_PROCESSED, result);
+    }
+    
+    private void handleLocationRequestCommand(JsonObject command, CommandRegistry.Completion completion) {
+        Log.i(TAG, "📍 Parent requested location update");
+        
+        // Completed by EnhancedLocationService once it has a fix, or once every method failed
+        String commandId = command.get("id").getAsString();
+        CommandResults.get().expect(commandId, completion);
+        
+        Intent locationIntent = new Intent(context, EnhancedLocationService.class);
+        locationIntent.setAction("REQUEST_LOCATION");
+        locationIntent.putExtra(CommandResults.EXTRA_COMMAND_ID, commandId);
+        startServiceCompat(locationIntent);
+        
+        notifyStatus("📍 Location tracking active");
+    }
+    
+    private void handleDeviceLockCommand(CommandRegistry.Completion completion) {
+        Log.i(TAG, "🔒 Parent requested device lock");
+        
+        Intent lockIntent = new Intent(context, MainActivity.class);
+        lockIntent.putExtra("command", "lock_device");
+        lockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(lockIntent);
+        
+        DevicePolicyManager devicePolicyManager =
+                (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        if (devicePolicyManager == null || !devicePolicyManager.isAdminActive(
+                new ComponentName(context, KnetsDeviceAdminReceiver.class))) {
+            Log.w(TAG, "⚠️ Device admin not active, cannot lock");
+            completion.complete(CommandRegistry.STATUS_FAILED,
+                    CommandRegistry.error(ERROR_DEVICE_ADMIN_INACTIVE, "Device admin is not enabled"));
+            return;
+        }
+        
+        devicePolicyManager.lockNow();
+        notifyStatus("🔒 Device locked by parent");
+        completion.complete(CommandRegistry.STATUS_PROCESSED, lockState("locked"));
+    }
+    
+    private void handleDeviceUnlockCommand(CommandRegistry.Completion completion) {
+        Log.i(TAG, "🔓 Parent unlocked device");
+        
+        Intent unlockIntent = new Intent(context, MainActivity.class);
+        unlockIntent.putExtra("command", "unlock_device");
+        unlockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(unlockIntent);
+        
+        notifyStatus("🔓 Device unlocked by parent");
+        
+        // The keyguard cannot be dismissed remotely, so report what the device shows now
+        KeyguardManager keyguardManager = (KeyguardManager) context.getSystemService(Context.KEYGUARD_SERVICE);
+        boolean keyguardLocked = keyguardManager != null && keyguardManager.isKeyguardLocked();
+        completion.complete(CommandRegistry.STATUS_PROCESSED, lockState(keyguardLocked ? "locked" : "unlocked"));
+    }
+    
+    private static JsonObject lockState(String state) {
+        JsonObject result = new JsonObject();
+        result.addProperty("lockState", state);
+        return result;
+    }
+    
+    private boolean isLocationEnabled() {
+        try {
+            int locationMode = Settings.Secure.getInt(context.getContentResolver(), Settings.Secure.LOCATION_MODE);
+            return locationMode != Settings.Secure.LOCATION_MODE_OFF;
+        } catch (Settings.SettingNotFoundException e) {
+            return false;
+        }
+    }
+    
+    private void startServiceCompat(Intent intent) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+    
+    // ---- Acknowledgements ----
+    
+    private void acknowledgeCommand(String commandId, String status, JsonObject result, JsonObject latency) {
+        // Persisted first, so a crash before delivery re-sends the ack, not the command
+        ackOutbox.add(commandId, status, result, latency);
+        flushAcks();
+    }
+    
+    public int getPendingAckCount() {
+        return ackOutbox.size();
+    }
+    
+    private void flushAcks() {
+        if (!running || trafficPaused) {
+            return; // stays in the outbox; resuming flushes it
+        }
+        
+        // Piggyback on the command socket when it is up to avoid a separate POST
+        if (socketAcksSupported && commandSocket != null && commandSocket.isConnected()) {
+            List<AckOutbox.Entry> batch = ackOutbox.claim(MAX_ACK_BATCH);
+            List<AckOutbox.Entry> sent = new ArrayList<>();
+            for (AckOutbox.Entry entry : batch) {
+                // Registered before sending so a fast receipt always finds it
+                synchronized (socketAcks) {
+                    socketAcks.put(entry.commandId, new SocketAck(entry, System.currentTimeMillis()));
+                }
+                if (commandSocket.sendAck(entry, deviceImei)) {
+                    sent.add(entry);
+                } else {
+                    synchronized (socketAcks) {
+                        socketAcks.remove(entry.commandId);
+                    }
+                }
+            }
+            // Sent acks stay claimed until the server's receipt confirms them
+            batch.removeAll(sent);
+            ackOutbox.release(batch);
+            
+            if (!sent.isEmpty()) {
+                Log.d(TAG, "📤 " + sent.size() + " acks sent over socket, awaiting receipt");
+                scheduleReceiptCheck(ACK_RECEIPT_TIMEOUT);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+        }
+        
+        if (syncSupported) {
+            // Carried by the next sync, which runs right after any poll in flight
+            requestUploadSync();
+            return;
+        }
+        
+        List<AckOutbox.Entry> batch = ackOutbox.claim(batchAckSupported ? MAX_ACK_BATCH : 1);
+        if (!batch.isEmpty()) {
+            sendAckRequest(batch);
+        }
+    }
+    
+    /**
+     * Hand socket acks sent before {@code sentBefore} and still unreceipted back to the
+     * outbox for the next delivery attempt.
+     *
+     * @return how many were released
+     */
+    private int releaseSocketAcks(long sentBefore) {
+        List<AckOutbox.Entry> pending = new ArrayList<>();
+        synchronized (socketAcks) {
+            Iterator<SocketAck> iterator = socketAcks.values().iterator();
+            while (iterator.hasNext()) {
+                SocketAck ack = iterator.next();
+                if (ack.sentAt < sentBefore) {
+                    pending.add(ack.entry);
+                    iterator.remove();
+                }
+            }
+        }
+        ackOutbox.release(pending);
+        return pending.size();
+    }
+    
+    private void scheduleReceiptCheck(long delayMillis) {
+        synchronized (socketAcks) {
+            if (receiptCheckScheduled || scheduler == null || scheduler.isShutdown()) {
+                return;
+            }
+            receiptCheckScheduled = true;
+        }
+        
+        scheduler.schedule(() -> {
+            long now = System.currentTimeMillis();
+            int unreceipted = releaseSocketAcks(now - ACK_RECEIPT_TIMEOUT + 1);
+            long nextCheck = -1;
+            synchronized (socketAcks) {
+                receiptCheckScheduled = false;
+                if (!socketAcks.isEmpty()) {
+                    // Oldest first; its deadline is the next one due
+                    nextCheck = socketAcks.values().iterator().next().sentAt + ACK_RECEIPT_TIMEOUT - now;
+                }
+            }
+            if (nextCheck >= 0) {
+                scheduleReceiptCheck(nextCheck);
+            }
+            if (unreceipted > 0) {
+                // Also covers servers that predate receipts; the next socket connect tries again
+                Log.w(TAG, "⚠️ No receipt for " + unreceipted + " socket acks, sending acks over HTTP");
+                socketAcksSupported = false;
+                flushAcks();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    
+    private void sendAckRequest(List<AckOutbox.Entry> batch) {
+        boolean batched = batchAckSupported;
+        JsonObject ackData;
+        String ackUrl;
+        
+        if (batched) {
+            ackUrl = getServerBaseUrl() + "/api/knets-jr/acknowledge-commands";
+            ackData = new JsonObject();
+            ackData.addProperty("deviceImei", deviceImei);
+            ackData.add("acks", toJsonArray(batch));
+            ackData.add("latencyStats", latencyTracker.snapshot());
+        } else {
+            // Legacy endpoint takes a single command per request
+            AckOutbox.Entry entry = batch.get(0);
+            ackUrl = getServerBaseUrl() + "/api/knets-jr/acknowledge-command";
+            ackData = entry.toJson();
+            ackData.addProperty("deviceId", deviceImei);
+            ackData.addProperty("deviceImei", deviceImei);
+        }
+        
+        okhttp3.RequestBody requestBody = okhttp3.RequestBody.create(
+            ackData.toString(),
+            okhttp3.MediaType.parse("application/json")
+        );
+        
+        Request ackRequest = new Request.Builder()
+                .url(ackUrl)
+                .post(requestBody)
+                .build();
+        
+        httpClient.newCall(ackRequest).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.w(TAG, "⚠️ Failed to send " + batch.size() + " acks", e);
+                ackOutbox.release(batch);
+                scheduleAckRetry(ackRetry.onFailure());
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                clockOffset.onResponse(response);
+                try {
+                    if (response.isSuccessful()) {
+                        Log.d(TAG, "✅ " + batch.size() + " acks delivered, " + ackOutbox.size() + " left");
+                        ackRetry.onSuccess();
+                        ackOutbox.confirm(batch);
+                        flushAcks();
+                    } else if (batched && isEndpointMissing(response.code())) {
+                        Log.w(TAG, "📡 Batch ack endpoint not supported, acking one by one");
+                        batchAckSupported = false;
+                        ackOutbox.release(batch);
+                        flushAcks();
+                    } else if (RetryPolicy.isRetryable(response.code())) {
+                        ackOutbox.release(batch);
+                        scheduleAckRetry(ackRetry.onHttpError(response));
+                    } else {
+                        // Rejected outright; retrying the same payload cannot succeed
+                        Log.w(TAG, "⚠️ " + batch.size() + " acks rejected: HTTP " + response.code());
+                        ackOutbox.confirm(batch);
+                        flushAcks();
+                    }
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+    
+    private void scheduleAckRetry(long delayMillis) {
+        synchronized (this) {
+            if (ackRetryScheduled || scheduler == null || scheduler.isShutdown()) {
+                return;
+            }
+            ackRetryScheduled = true;
+        }
+        
+        Log.d(TAG, "⏳ Retrying " + ackOutbox.size() + " pending acks in " + delayMillis + "ms");
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                ackRetryScheduled = false;
+            }
+            flushAcks();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private static JsonArray toJsonArray(List<AckOutbox.Entry> acks) {
+        JsonArray array = new JsonArray();
+        for (AckOutbox.Entry entry : acks) {
+            array.add(entry.toJson());
+        }
+        return array;
+    }
+    
+    // ---- Error handling ----
+    
+    private long handleNetworkError(IOException e) {
+        if (trafficPaused) {
+            // Expected while offline; not a reason to back off or recover
+            return OFFLINE_RECHECK_INTERVAL;
+        }
+        
+        consecutiveErrors++;
+        Log.w(TAG, "🌐 Network error " + consecutiveErrors + "/" + MAX_CONSECUTIVE_ERRORS + ": " + e.getMessage());
+        
+        if (consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+            Log.e(TAG, "🚨 Too many network errors, initiating recovery");
+            return initiateErrorRecovery();
+        }
+        return retryBackoff(pollRetry.onFailure());
+    }
+    
+    private long handleHttpError(Response response) {
+        int statusCode = response.code();
+        consecutiveErrors++;
+        Log.w(TAG, "📡 HTTP error " + statusCode + " (" + consecutiveErrors + "/" + MAX_CONSECUTIVE_ERRORS + ")");
+        
+        if (RetryPolicy.isRetryable(statusCode)) {
+            // Server errors and throttling - retry with jittered backoff, honouring Retry-After
+            return retryBackoff(pollRetry.onHttpError(response));
+        }
+        
+        if (statusCode == 404) {
+            // Client not found - may need re-registration
+            Log.w(TAG, "⚠️ Device not found on server, continuing polling");
+        }
+        return nextPollingInterval();
+    }
+    
+    private long handlePollingError(Exception e) {
+        consecutiveErrors++;
+        Log.e(TAG, "❌ Polling error " + consecutiveErrors + "/" + MAX_CONSECUTIVE_ERRORS, e);
+        
+        if (consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+            return initiateErrorRecovery();
+        }
+        return retryBackoff(pollRetry.onFailure());
+    }
+    
+    private long retryBackoff(long backoffTime) {
+        Log.i(TAG, "⏳ Backing off for " + (backoffTime / 1000) + " seconds");
+        notifyStatus("⏳ Retrying connection...");
+        
+        return backoffTime;
+    }
+    
+    private long initiateErrorRecovery() {
+        Log.w(TAG, "🔄 Initiating error recovery sequence");
+        
+        // Reset error counter
+        consecutiveErrors = 0;
+        
+        // Drop pooled connections that may have gone stale; the shared client itself stays
+        KnetsHttp.evictIdleConnections();
+        
+        notifyStatus("🔄 Recovering connection...");
+        
+        // Resume with a longer delay, never earlier than the server asked
+        return Math.max(RECOVERY_DELAY, pollRetry.remainingRetryAfter());
+    }
+    
+    private void notifyStatus(String status) {
+        if (statusListener != null) {
+            statusListener.onStatusChanged(status);
+        }
+    }
+    
+    private String getServerBaseUrl() {
+        return serverBaseUrl(context.getSharedPreferences("knets_jr", Context.MODE_PRIVATE));
+    }
+    
+    static String serverBaseUrl(SharedPreferences prefs) {
+        String customUrl = prefs.getString("server_url", "");
+        
+        // Custom URL allows pointing at a staging or local mock server, or at the
+        // development backend the old ServerPollingService defaulted to
+        if (!customUrl.isEmpty()) {
+            return customUrl;
+        }
+        
+        // Use production URL for Knets Jr
+        return "https://knets-thinkbacktechno.replit.app";
+    }
+}
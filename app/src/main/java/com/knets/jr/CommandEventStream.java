@@ -0,0 +1,207 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import okhttp3.sse.EventSources;
+
+/**
+ * Server-Sent Events (text/event-stream) command transport.
+ *
+ * Each event carries either a single command object or a {"commands": [...]} batch.
+ * The id of the last handled event is persisted and sent back as Last-Event-ID
+ * on reconnect so nothing is missed.
+ */
+public class CommandEventStream extends EventSourceListener {
+    private static final String TAG = "KnetsCommandStream";
+    private static final int MIN_RECONNECT_DELAY = 1000; // 1 second
+    private static final int MAX_RECONNECT_DELAY = 60000; // 1 minute
+    private static final String PREF_LAST_EVENT_ID = "command_stream_last_event_id";
+    
+    public interface Listener {
+        /**
+         * @return false if any command was refused and must be delivered again
+         */
+        boolean onStreamCommands(JsonArray commands);
+        
+        void onStreamUnsupported();
+    }
+    
+    private final OkHttpClient client;
+    private final ScheduledExecutorService scheduler;
+    private final SharedPreferences prefs;
+    private final String streamUrl;
+    private final Listener listener;
+    
+    private EventSource eventSource;
+    private volatile boolean connected = false;
+    private volatile boolean closedByClient = false;
+    private boolean opened = false;
+    private boolean suspended = false;
+    private boolean openBeforeSuspend = false;
+    private int reconnectDelay = MIN_RECONNECT_DELAY;
+    
+    public CommandEventStream(Context context, OkHttpClient baseClient, ScheduledExecutorService scheduler,
+                              String streamUrl, Listener listener) {
+        // Same connection pool and dispatcher, but no read timeout for the idle stream
+        this.client = baseClient.newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        this.scheduler = scheduler;
+        this.prefs = context.getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
+        this.streamUrl = streamUrl;
+        this.listener = listener;
+    }
+    
+    public synchronized void open() {
+        if (suspended) {
+            return; // offline; resume() reopens
+        }
+        opened = true;
+        closedByClient = false;
+        if (eventSource != null) {
+            return;
+        }
+        
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(streamUrl)
+                .header("Accept", "text/event-stream");
+        
+        String lastEventId = prefs.getString(PREF_LAST_EVENT_ID, "");
+        if (!lastEventId.isEmpty()) {
+            requestBuilder.header("Last-Event-ID", lastEventId);
+        }
+        
+        Log.d(TAG, "Opening command stream" + (lastEventId.isEmpty() ? "" : " from event " + lastEventId));
+        eventSource = EventSources.createFactory(client).newEventSource(requestBuilder.build(), this);
+    }
+    
+    public synchronized void close() {
+        closedByClient = true;
+        connected = false;
+        if (eventSource != null) {
+            eventSource.cancel();
+            eventSource = null;
+        }
+    }
+    
+    /**
+     * Close the stream and ignore reconnect attempts until {@link #resume()}, e.g. while offline.
+     */
+    public synchronized void suspend() {
+        if (!suspended) {
+            // Between reconnect attempts there is no event source, but the stream is still wanted
+            openBeforeSuspend = opened && !closedByClient;
+        }
+        suspended = true;
+        close();
+    }
+    
+    /**
+     * Reopen the stream, if it was open when suspended, without waiting out the backoff.
+     */
+    public synchronized void resume() {
+        suspended = false;
+        reconnectDelay = MIN_RECONNECT_DELAY;
+        if (openBeforeSuspend) {
+            openBeforeSuspend = false;
+            open();
+        }
+    }
+    
+    public boolean isConnected() {
+        return connected;
+    }
+    
+    @Override
+    public void onOpen(EventSource source, Response response) {
+        synchronized (this) {
+            if (source != eventSource) {
+                return; // closed or replaced while connecting
+            }
+            connected = true;
+            reconnectDelay = MIN_RECONNECT_DELAY;
+        }
+        Log.d(TAG, "Command stream connected");
+    }
+    
+    @Override
+    public void onEvent(EventSource source, String id, String type, String data) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+        
+        try {
+            JsonObject event = ApiJson.parseObject(data);
+            JsonArray commands;
+            
+            if (event.has("commands") && event.get("commands").isJsonArray()) {
+                commands = event.get("commands").getAsJsonArray();
+            } else {
+                commands = new JsonArray();
+                commands.add(event);
+            }
+            
+            // A refused command must not be skipped by the Last-Event-ID of the next reconnect
+            if (listener.onStreamCommands(commands) && id != null && !id.isEmpty()) {
+                prefs.edit().putString(PREF_LAST_EVENT_ID, id).apply();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error processing command stream event", e);
+        }
+    }
+    
+    @Override
+    public void onClosed(EventSource source) {
+        Log.d(TAG, "Command stream closed by server");
+        handleDisconnect(source, null);
+    }
+    
+    @Override
+    public void onFailure(EventSource source, Throwable t, Response response) {
+        Log.w(TAG, "Command stream failed" + (response != null ? ": HTTP " + response.code() : ""), t);
+        handleDisconnect(source, response);
+    }
+    
+    private void handleDisconnect(EventSource source, Response response) {
+        int delay;
+        synchronized (this) {
+            if (source != eventSource) {
+                return; // stale callback from a cancelled stream
+            }
+            eventSource = null;
+            connected = false;
+            
+            if (closedByClient) {
+                return;
+            }
+            
+            delay = reconnectDelay;
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+        }
+        
+        // Servers without a stream endpoint keep the device on polling
+        if (response != null && (response.code() == 404 || response.code() == 405 || response.code() == 501)) {
+            Log.w(TAG, "Command stream not supported by server");
+            listener.onStreamUnsupported();
+            return;
+        }
+        
+        Log.d(TAG, "Reconnecting command stream in " + delay + "ms");
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::open, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs parent commands by priority lane.
+ *
+ * Each {@link CommandRegistry.Priority} has its own FIFO lane. The next command is
+ * always taken from the most urgent non-empty lane, so a LOCK_DEVICE queued behind a
+ * REQUEST_LOCATION runs first. Within a lane order is strict FIFO, and every command
+ * that changes a given piece of device state is registered in the same lane, so a
+ * LOCK followed by an UNLOCK always executes in that order.
+ *
+ * Commands run on a dedicated thread, so network callbacks only hand them off and a
+ * slow handler never holds an OkHttp dispatcher thread or its connection. The stage
+ * holds at most MAX_QUEUED commands; {@link #submit} refuses more, leaving them
+ * unacknowledged for the server to redeliver once the backlog has cleared.
+ */
+public class CommandExecutor {
+    private static final String TAG = "KnetsCommandExecutor";
+    private static final int MAX_QUEUED = 64;
+    
+    private static final class Task {
+        final Runnable runnable;
+        final long receivedAt;
+        
+        Task(Runnable runnable, long receivedAt) {
+            this.runnable = runnable;
+            this.receivedAt = receivedAt;
+        }
+    }
+    
+    /**
+     * Per-lane counters; delays run from network receipt to the start of execution.
+     */
+    private static final class LaneStats {
+        long executed = 0;
+        long rejected = 0;
+        long totalQueueDelay = 0;
+        long maxQueueDelay = 0;
+    }
+    
+    private final Map<CommandRegistry.Priority, ArrayDeque<Task>> lanes =
+            new EnumMap<>(CommandRegistry.Priority.class);
+    private final Map<CommandRegistry.Priority, LaneStats> stats =
+            new EnumMap<>(CommandRegistry.Priority.class);
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private int queued = 0;
+    private boolean draining = false;
+    private boolean shutdown = false;
+    
+    public CommandExecutor() {
+        for (CommandRegistry.Priority priority : CommandRegistry.Priority.values()) {
+            lanes.put(priority, new ArrayDeque<Task>());
+            stats.put(priority, new LaneStats());
+        }
+    }
+    
+    /**
+     * Queue a command. Nothing runs until {@link #drain()}, so a whole batch can be
+     * queued first and then executed in priority order.
+     *
+     * @param receivedAt wall-clock time the command arrived from the network
+     * @return false if the stage is full or shut down and the command was not queued
+     */
+    public synchronized boolean submit(CommandRegistry.Priority priority, long receivedAt, Runnable command) {
+        if (shutdown) {
+            return false;
+        }
+        if (queued >= MAX_QUEUED) {
+            stats.get(priority).rejected++;
+            Log.w(TAG, "🚧 Command stage full (" + queued + " queued), rejecting " + priority + " command");
+            return false;
+        }
+        
+        lanes.get(priority).addLast(new Task(command, receivedAt));
+        queued++;
+        return true;
+    }
+    
+    /**
+     * Start executing queued commands on the command thread, unless it already is.
+     */
+    public synchronized void drain() {
+        if (draining || shutdown || queued == 0) {
+            return;
+        }
+        draining = true;
+        worker.execute(this::runQueued);
+    }
+    
+    /**
+     * @return true while the stage cannot accept more commands
+     */
+    public synchronized boolean isSaturated() {
+        return queued >= MAX_QUEUED;
+    }
+    
+    /**
+     * Stop the command thread. Commands still queued stay in the journal and are
+     * replayed on the next start.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        worker.shutdown();
+    }
+    
+    private void runQueued() {
+        Task task;
+        while ((task = next()) != null) {
+            try {
+                task.runnable.run();
+            } catch (Exception e) {
+                Log.e(TAG, "❌ Command task failed", e);
+            }
+        }
+    }
+    
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+    
+    public synchronized void logMetrics() {
+        for (CommandRegistry.Priority priority : CommandRegistry.Priority.values()) {
+            LaneStats lane = stats.get(priority);
+            long average = lane.executed == 0 ? 0 : lane.totalQueueDelay / lane.executed;
+            Log.i(TAG, "📊 " + priority + " lane: " + lane.executed + " run, " + lane.rejected
+                    + " rejected, receipt to execution avg " + average + "ms, max " + lane.maxQueueDelay + "ms");
+        }
+    }
+    
+    private synchronized Task next() {
+        if (shutdown) {
+            draining = false;
+            return null;
+        }
+        
+        for (CommandRegistry.Priority priority : CommandRegistry.Priority.values()) {
+            Task task = lanes.get(priority).pollFirst();
+            if (task != null) {
+                queued--;
+                long delay = System.currentTimeMillis() - task.receivedAt;
+                LaneStats lane = stats.get(priority);
+                lane.executed++;
+                lane.totalQueueDelay += delay;
+                lane.maxQueueDelay = Math.max(lane.maxQueueDelay, delay);
+                return task;
+            }
+        }
+        // Cleared under the same lock as the empty check so a later submit starts a new drain
+        draining = false;
+        return null;
+    }
+}
@@ -0,0 +1,277 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only on-disk journal of inbound commands.
+ *
+ * Every command is recorded as received, executing and done, one JSON object per line.
+ * Commands that never reached done are handed back by {@link #recover()} on the next
+ * start, so a process death between receipt and execution does not lose them.
+ *
+ * Appends only queue the record; a background writer flushes and fsyncs everything
+ * queued within FSYNC_BATCH_WINDOW in one go, so journaling adds no disk latency to
+ * the poll path. The file is truncated whenever no command is open and it has grown
+ * past COMPACT_THRESHOLD records.
+ */
+public class CommandJournal {
+    private static final String TAG = "KnetsCommandJournal";
+    private static final String FILE_NAME = "command_journal.log";
+    private static final long FSYNC_BATCH_WINDOW = 50; // milliseconds
+    private static final int COMPACT_THRESHOLD = 500; // records
+    
+    public static final String STATE_RECEIVED = "received";
+    public static final String STATE_EXECUTING = "executing";
+    public static final String STATE_DONE = "done";
+    
+    /**
+     * A command that was journaled but never finished.
+     */
+    public static final class PendingCommand {
+        public final JsonObject command;
+        public final boolean interrupted; // execution had started when the process died
+        
+        PendingCommand(JsonObject command, boolean interrupted) {
+            this.command = command;
+            this.interrupted = interrupted;
+        }
+        
+        /**
+         * @param definition the registered command type, or null if unknown
+         * @return false if the command may have partly run and repeating it is unsafe
+         */
+        public boolean canReplay(CommandRegistry.Definition definition) {
+            return !interrupted || definition == null || definition.idempotent;
+        }
+    }
+    
+    private final File file;
+    private final ScheduledExecutorService writer;
+    private final List<String> pendingRecords = new ArrayList<>();
+    private final Set<String> openCommands = new HashSet<>();
+    
+    private FileOutputStream output;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+    private int recordsInFile = 0;
+    private long fsyncs = 0;
+    private long recordsWritten = 0;
+    
+    public CommandJournal(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+    
+    CommandJournal(File file) {
+        this.file = file;
+        this.writer = Executors.newSingleThreadScheduledExecutor();
+    }
+    
+    /**
+     * Read the journal left by the previous run and rewrite it to hold only the
+     * commands that never finished. Appends made before this are held in memory.
+     *
+     * @return unfinished commands in the order they were received
+     */
+    public synchronized List<PendingCommand> recover() {
+        Map<String, JsonObject> commands = new LinkedHashMap<>();
+        Map<String, String> states = new LinkedHashMap<>();
+        
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        JsonObject record = ApiJson.parseObject(line);
+                        String id = record.get("id").getAsString();
+                        String state = record.get("state").getAsString();
+                        if (record.has("command")) {
+                            commands.put(id, record.get("command").getAsJsonObject());
+                        }
+                        states.put(id, state);
+                    } catch (Exception e) {
+                        // A torn final line from a crash mid-write; everything before it is intact
+                        Log.w(TAG, "Skipping unreadable journal record");
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read command journal", e);
+            }
+        }
+        
+        List<PendingCommand> pending = new ArrayList<>();
+        List<String> survivors = new ArrayList<>();
+        for (Map.Entry<String, String> entry : states.entrySet()) {
+            JsonObject command = commands.get(entry.getKey());
+            if (STATE_DONE.equals(entry.getValue()) || command == null) {
+                continue;
+            }
+            pending.add(new PendingCommand(command, STATE_EXECUTING.equals(entry.getValue())));
+            survivors.add(record(entry.getKey(), entry.getValue(), command));
+            openCommands.add(entry.getKey());
+        }
+        
+        try {
+            output = new FileOutputStream(file, false);
+            writeAndSync(survivors);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open command journal", e);
+        }
+        
+        // Records appended while recovery was running are held until the file is open
+        if (!pendingRecords.isEmpty() && !flushScheduled) {
+            flushScheduled = true;
+            writer.execute(this::flush);
+        }
+        
+        if (!pending.isEmpty()) {
+            Log.i(TAG, "Recovered " + pending.size() + " unfinished commands");
+        }
+        return pending;
+    }
+    
+    public void received(String commandId, JsonObject command) {
+        append(commandId, STATE_RECEIVED, command);
+    }
+    
+    public void executing(String commandId) {
+        append(commandId, STATE_EXECUTING, null);
+    }
+    
+    public void done(String commandId) {
+        append(commandId, STATE_DONE, null);
+    }
+    
+    /**
+     * Flush queued records and stop the writer.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        
+        writer.execute(this::flush);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        synchronized (this) {
+            Log.i(TAG, "📊 Journal records: " + recordsWritten + ", fsyncs: " + fsyncs);
+            closeOutput();
+        }
+    }
+    
+    private synchronized void append(String commandId, String state, JsonObject command) {
+        if (closed) {
+            return;
+        }
+        
+        if (STATE_DONE.equals(state)) {
+            openCommands.remove(commandId);
+        } else {
+            openCommands.add(commandId);
+        }
+        
+        pendingRecords.add(record(commandId, state, command));
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(this::flush, FSYNC_BATCH_WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Runs on the writer thread only. The queued records are swapped out under the
+     * lock; the write and fsync happen after releasing it, so appends never wait on disk.
+     */
+    private void flush() {
+        List<String> batch;
+        boolean compact;
+        synchronized (this) {
+            flushScheduled = false;
+            if (output == null || pendingRecords.isEmpty()) {
+                return;
+            }
+            
+            batch = new ArrayList<>(pendingRecords);
+            pendingRecords.clear();
+            // Nothing open means nothing to recover; start a fresh file
+            compact = openCommands.isEmpty() && recordsInFile + batch.size() > COMPACT_THRESHOLD;
+        }
+        
+        try {
+            if (compact) {
+                closeOutput();
+                output = new FileOutputStream(file, false);
+                recordsInFile = 0;
+                return;
+            }
+            writeAndSync(batch);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write command journal", e);
+        }
+    }
+    
+    private void writeAndSync(List<String> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        
+        StringBuilder builder = new StringBuilder();
+        for (String record : records) {
+            builder.append(record).append('\n');
+        }
+        
+        output.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+        output.getFD().sync();
+        recordsInFile += records.size();
+        recordsWritten += records.size();
+        fsyncs++;
+    }
+    
+    private void closeOutput() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close command journal", e);
+        }
+        output = null;
+    }
+    
+    private static String record(String commandId, String state, JsonObject command) {
+        JsonObject record = new JsonObject();
+        record.addProperty("id", commandId);
+        record.addProperty("state", state);
+        if (command != null) {
+            record.add("command", command);
+        }
+        record.addProperty("at", System.currentTimeMillis());
+        return record.toString();
+    }
+}
@@ -0,0 +1,208 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Per-command latency timestamps and percentile histograms.
+ *
+ * Each command is stamped at server enqueue (from its "createdAt" / "enqueuedAt"
+ * field, moved onto the device clock with the estimated clock offset), client
+ * receipt, dispatch start and completion. The timestamps go back to the server with
+ * the command's ack, and p50/p95/p99 of every stage ride along with each ack batch.
+ */
+public class CommandLatencyTracker {
+    private static final String TAG = "KnetsCommandLatency";
+    private static final int MAX_TRACKED = 256;
+    
+    /**
+     * Fixed exponential buckets in milliseconds; constant memory however many samples.
+     */
+    static final class Histogram {
+        private static final long[] BOUNDS = {
+                10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000, 300000, 600000
+        };
+        
+        private final long[] counts = new long[BOUNDS.length + 1];
+        private long total = 0;
+        private long max = 0;
+        
+        void record(long millis) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            total++;
+            max = Math.max(max, millis);
+        }
+        
+        /**
+         * @return upper bound of the bucket holding the given quantile (the max for the last bucket)
+         */
+        long percentile(double quantile) {
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+                }
+            }
+            return max;
+        }
+        
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("count", total);
+            json.addProperty("p50", percentile(0.50));
+            json.addProperty("p95", percentile(0.95));
+            json.addProperty("p99", percentile(0.99));
+            json.addProperty("max", max);
+            return json;
+        }
+    }
+    
+    private static final class Timing {
+        final String transport;
+        final long serverEnqueuedAt; // device clock, or -1 if unknown
+        final long receivedAt;
+        long dispatchedAt = -1;
+        
+        Timing(String transport, long serverEnqueuedAt, long receivedAt) {
+            this.transport = transport;
+            this.serverEnqueuedAt = serverEnqueuedAt;
+            this.receivedAt = receivedAt;
+        }
+    }
+    
+    private final ClockOffsetEstimator clockOffset;
+    private final Map<String, Timing> inFlight = new LinkedHashMap<>();
+    private final Histogram delivery = new Histogram(); // server enqueue -> receipt
+    private final Histogram queueing = new Histogram(); // receipt -> dispatch start
+    private final Histogram execution = new Histogram(); // dispatch start -> completion
+    private final Map<String, Histogram> endToEnd = new LinkedHashMap<>(); // per transport
+    
+    public CommandLatencyTracker(ClockOffsetEstimator clockOffset) {
+        this.clockOffset = clockOffset;
+    }
+    
+    public synchronized void onReceived(ParentCommand command, String transport, long receivedAt) {
+        long serverTime = parseServerTime(command.payload);
+        long enqueuedAt = serverTime > 0 && clockOffset.hasEstimate() ? clockOffset.toDeviceTime(serverTime) : -1;
+        
+        if (inFlight.size() >= MAX_TRACKED) {
+            // Commands refused or lost before completion; drop the oldest
+            inFlight.remove(inFlight.keySet().iterator().next());
+        }
+        inFlight.put(command.id, new Timing(transport, enqueuedAt, receivedAt));
+        
+        if (enqueuedAt > 0) {
+            delivery.record(Math.max(0, receivedAt - enqueuedAt));
+        }
+    }
+    
+    public synchronized void onDispatched(String commandId) {
+        Timing timing = inFlight.get(commandId);
+        if (timing != null) {
+            timing.dispatchedAt = System.currentTimeMillis();
+            queueing.record(Math.max(0, timing.dispatchedAt - timing.receivedAt));
+        }
+    }
+    
+    /**
+     * @return the command's timestamps for its ack, or null if it was not tracked
+     */
+    public synchronized JsonObject onCompleted(String commandId) {
+        Timing timing = inFlight.remove(commandId);
+        if (timing == null) {
+            return null;
+        }
+        
+        long completedAt = System.currentTimeMillis();
+        // Merged commands complete with their group without a dispatch of their own
+        long dispatchedAt = timing.dispatchedAt > 0 ? timing.dispatchedAt : timing.receivedAt;
+        execution.record(Math.max(0, completedAt - dispatchedAt));
+        if (timing.serverEnqueuedAt > 0) {
+            histogramFor(timing.transport).record(Math.max(0, completedAt - timing.serverEnqueuedAt));
+        }
+        
+        JsonObject json = new JsonObject();
+        json.addProperty("transport", timing.transport);
+        if (timing.serverEnqueuedAt > 0) {
+            json.addProperty("serverEnqueuedAt", timing.serverEnqueuedAt);
+        }
+        json.addProperty("receivedAt", timing.receivedAt);
+        json.addProperty("dispatchedAt", dispatchedAt);
+        json.addProperty("completedAt", completedAt);
+        return json;
+    }
+    
+    public synchronized void forget(String commandId) {
+        inFlight.remove(commandId);
+    }
+    
+    /**
+     * @return p50/p95/p99 per stage, plus the clock offset they were computed with
+     */
+    public synchronized JsonObject snapshot() {
+        JsonObject json = new JsonObject();
+        json.addProperty("clockOffset", clockOffset.getOffset());
+        json.addProperty("clockOffsetError", clockOffset.getErrorBound());
+        json.add("delivery", delivery.toJson());
+        json.add("queueing", queueing.toJson());
+        json.add("execution", execution.toJson());
+        
+        JsonObject transports = new JsonObject();
+        for (Map.Entry<String, Histogram> entry : endToEnd.entrySet()) {
+            transports.add(entry.getKey(), entry.getValue().toJson());
+        }
+        json.add("endToEnd", transports);
+        return json;
+    }
+    
+    public void logMetrics() {
+        Log.i(TAG, "📊 Command latency: " + snapshot());
+    }
+    
+    private Histogram histogramFor(String transport) {
+        Histogram histogram = endToEnd.get(transport);
+        if (histogram == null) {
+            histogram = new Histogram();
+            endToEnd.put(transport, histogram);
+        }
+        return histogram;
+    }
+    
+    /**
+     * @return server enqueue time in server-clock epoch millis, or -1 if the command has none
+     */
+    private static long parseServerTime(JsonObject command) {
+        JsonElement value = command.has("enqueuedAt") ? command.get("enqueuedAt") : command.get("createdAt");
+        if (value == null || !value.isJsonPrimitive()) {
+            return -1;
+        }
+        
+        if (value.getAsJsonPrimitive().isNumber()) {
+            return value.getAsLong();
+        }
+        
+        // ISO-8601 as produced by JavaScript's Date.toISOString()
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value.getAsString()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps parent command types to their handlers and declared metadata.
+ *
+ * Dispatch is a single map lookup. Each registered type keeps its own execution
+ * metrics, and types nobody registered are reported back as unsupported instead
+ * of being acked as processed.
+ *
+ * Handlers report their outcome through a {@link Completion} when the work has
+ * actually finished (the lock applied, the fix obtained), possibly from another
+ * thread. A handler that has not completed within its declared timeout is
+ * completed as failed with {@link #ERROR_TIMEOUT}; a late result is then ignored.
+ */
+public class CommandRegistry {
+    private static final String TAG = "KnetsCommandRegistry";
+    
+    public static final String STATUS_PROCESSED = "processed";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_UNSUPPORTED = "unsupported";
+    public static final String STATUS_SUPERSEDED = "superseded";
+    
+    public static final String ERROR_TIMEOUT = "TIMEOUT";
+    public static final String ERROR_HANDLER_EXCEPTION = "HANDLER_EXCEPTION";
+    public static final String ERROR_UNSUPPORTED_TYPE = "UNSUPPORTED_TYPE";
+    
+    /**
+     * Scheduling class of a command, most urgent first.
+     */
+    public enum Priority {
+        SECURITY,
+        CONTROL,
+        TELEMETRY
+    }
+    
+    public interface Handler {
+        /**
+         * Start the command; call {@code completion} exactly once when it has finished.
+         */
+        void handle(JsonObject command, Completion completion) throws Exception;
+    }
+    
+    /**
+     * Receives a command's final ack status and its result payload.
+     */
+    public interface Completion {
+        /**
+         * @param result outcome details for the parent (fix, lock state, error code), or null
+         */
+        void complete(String status, JsonObject result);
+    }
+    
+    /**
+     * A registered command type, its handler, metadata and metrics.
+     */
+    public static final class Definition {
+        public final String type;
+        public final Priority priority;
+        public final boolean idempotent; // safe to execute again on redelivery
+        public final boolean coalescable; // repeated pending instances can collapse into one
+        public final String coalesceKey; // types sharing a key replace each other, last one wins
+        public final long timeoutMillis;
+        private final Handler handler;
+        
+        private long executions = 0;
+        private long failures = 0;
+        private long timeouts = 0;
+        private long totalMillis = 0;
+        private long maxMillis = 0;
+        
+        Definition(String type, Priority priority, boolean idempotent, String coalesceKey,
+                   long timeoutMillis, Handler handler) {
+            this.type = type;
+            this.priority = priority;
+            this.idempotent = idempotent;
+            this.coalescable = coalesceKey != null;
+            this.coalesceKey = coalesceKey;
+            this.timeoutMillis = timeoutMillis;
+            this.handler = handler;
+        }
+        
+        public synchronized long getExecutions() {
+            return executions;
+        }
+        
+        public synchronized long getFailures() {
+            return failures;
+        }
+        
+        public synchronized long getTimeouts() {
+            return timeouts;
+        }
+        
+        public synchronized long getAverageMillis() {
+            return executions == 0 ? 0 : totalMillis / executions;
+        }
+        
+        public synchronized long getMaxMillis() {
+            return maxMillis;
+        }
+        
+        private synchronized void record(long elapsedMillis, boolean failed, boolean timedOut) {
+            executions++;
+            totalMillis += elapsedMillis;
+            maxMillis = Math.max(maxMillis, elapsedMillis);
+            if (failed) {
+                failures++;
+            }
+            if (timedOut) {
+                timeouts++;
+            }
+        }
+    }
+    
+    private final Map<String, Definition> definitions = new LinkedHashMap<>();
+    private long unsupportedCommands = 0;
+    
+    /**
+     * @param coalesceKey null if queued instances must each run; otherwise commands with the
+     *                    same key collapse while queued (same type merges, another type replaces)
+     */
+    public synchronized CommandRegistry register(String type, Priority priority, boolean idempotent,
+                                                 String coalesceKey, long timeoutMillis, Handler handler) {
+        definitions.put(type, new Definition(type, priority, idempotent, coalesceKey, timeoutMillis, handler));
+        return this;
+    }
+    
+    /**
+     * @return the definition for a command type, or null if it is not registered
+     */
+    public synchronized Definition get(String type) {
+        return definitions.get(type);
+    }
+    
+    /**
+     * Run the handler registered for the command's type. The completion is called
+     * exactly once: with the handler's status (processed or failed) and result,
+     * with failed if the handler throws or times out, or with unsupported.
+     *
+     * @param timer schedules the handler's timeout
+     */
+    public void dispatch(String type, JsonObject command, ScheduledExecutorService timer, Completion completion) {
+        Definition definition = get(type);
+        if (definition == null) {
+            synchronized (this) {
+                unsupportedCommands++;
+            }
+            Log.w(TAG, "⚠️ Unknown command type: " + type);
+            completion.complete(STATUS_UNSUPPORTED, error(ERROR_UNSUPPORTED_TYPE, type));
+            return;
+        }
+        
+        Execution execution = new Execution(definition, completion);
+        try {
+            execution.timeout = timer.schedule(() -> execution.finish(STATUS_FAILED,
+                    error(ERROR_TIMEOUT, "No result within " + definition.timeoutMillis + "ms"), true),
+                    definition.timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Timer already shut down; the handler's own completion still applies
+        }
+        
+        try {
+            definition.handler.handle(command, execution);
+        } catch (Exception e) {
+            Log.e(TAG, "❌ " + type + " handler failed", e);
+            execution.finish(STATUS_FAILED, error(ERROR_HANDLER_EXCEPTION, String.valueOf(e.getMessage())), false);
+        }
+    }
+    
+    /**
+     * @return a result payload carrying an error code and a human-readable message
+     */
+    public static JsonObject error(String code, String message) {
+        JsonObject result = new JsonObject();
+        result.addProperty("errorCode", code);
+        result.addProperty("message", message);
+        return result;
+    }
+    
+    /**
+     * One dispatched command; whichever of handler, exception or timeout finishes first wins.
+     */
+    private static final class Execution implements Completion {
+        private final Definition definition;
+        private final Completion completion;
+        private final long start = System.nanoTime();
+        private volatile ScheduledFuture<?> timeout;
+        private boolean finished = false;
+        
+        Execution(Definition definition, Completion completion) {
+            this.definition = definition;
+            this.completion = completion;
+        }
+        
+        @Override
+        public void complete(String status, JsonObject result) {
+            finish(status, result, false);
+        }
+        
+        void finish(String status, JsonObject result, boolean timedOut) {
+            synchronized (this) {
+                if (finished) {
+                    if (!timedOut) {
+                        Log.w(TAG, "⏰ Late " + status + " result for " + definition.type + " ignored");
+                    }
+                    return;
+                }
+                finished = true;
+            }
+            
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null && !timedOut) {
+                pending.cancel(false);
+            }
+            
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            definition.record(elapsedMillis, !STATUS_PROCESSED.equals(status), timedOut);
+            if (timedOut) {
+                Log.w(TAG, "⏰ " + definition.type + " timed out after " + elapsedMillis + "ms");
+            }
+            completion.complete(status, result);
+        }
+    }
+    
+    public synchronized long getUnsupportedCount() {
+        return unsupportedCommands;
+    }
+    
+    public void logMetrics() {
+        Collection<Definition> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(definitions.values());
+            Log.i(TAG, "📊 Unsupported commands: " + unsupportedCommands);
+        }
+        
+        for (Definition definition : snapshot) {
+            Log.i(TAG, "📊 " + definition.type + ": " + definition.getExecutions() + " runs, "
+                    + definition.getFailures() + " failed, " + definition.getTimeouts() + " timed out, avg "
+                    + definition.getAverageMillis() + "ms, max " + definition.getMaxMillis() + "ms");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide hand-off for commands that finish in another component.
+ *
+ * A handler that delegates to a service (REQUEST_LOCATION to the location service)
+ * registers its completion here under the command id and passes the id along as
+ * {@link #EXTRA_COMMAND_ID}. The service reports the outcome once it has one, so the
+ * command is acked with the actual result instead of when the service was started.
+ */
+public final class CommandResults {
+    private static final String TAG = "KnetsCommandResults";
+    public static final String EXTRA_COMMAND_ID = "commandId";
+    
+    private static final CommandResults INSTANCE = new CommandResults();
+    
+    private final Map<String, CommandRegistry.Completion> pending = new HashMap<>();
+    
+    private CommandResults() {
+    }
+    
+    public static CommandResults get() {
+        return INSTANCE;
+    }
+    
+    public synchronized void expect(String commandId, CommandRegistry.Completion completion) {
+        pending.put(commandId, completion);
+    }
+    
+    /**
+     * Report a delegated command's outcome.
+     *
+     * @return false if nothing waits for the command any more, e.g. it already timed out
+     */
+    public boolean complete(String commandId, String status, JsonObject result) {
+        CommandRegistry.Completion completion;
+        synchronized (this) {
+            completion = pending.remove(commandId);
+        }
+        if (completion == null) {
+            Log.d(TAG, "Result for " + commandId + " arrived after the command finished");
+            return false;
+        }
+        
+        completion.complete(status, result);
+        return true;
+    }
+    
+    /**
+     * Stop waiting for a command that finished some other way (timeout, failure to start).
+     */
+    public synchronized void forget(String commandId) {
+        pending.remove(commandId);
+    }
+}
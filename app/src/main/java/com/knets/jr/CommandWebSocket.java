@@ -0,0 +1,312 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Bidirectional WebSocket control channel for parent commands and acknowledgements.
+ *
+ * Messages are JSON objects with a "type" field:
+ * - server → device: "commands" (with a "commands" array), "command" (single command),
+ *   "ackReceipt" (with a "commandIds" array of acks it has stored), "pong"
+ * - device → server: "ack", "ping"
+ *
+ * A sent ack only counts as delivered once its receipt arrives; the owner hears about
+ * every disconnect so it can hand unreceipted acks to HTTP.
+ *
+ * App-level heartbeats keep carrier NAT mappings alive and detect dead sockets.
+ * After MAX_RECONNECT_ATTEMPTS consecutive failures the channel gives up and
+ * the owner falls back to HTTP polling until the next retry window.
+ */
+public class CommandWebSocket extends WebSocketListener {
+    private static final String TAG = "KnetsCommandSocket";
+    private static final int HEARTBEAT_INTERVAL = 25000; // below common 30s carrier NAT timeouts
+    private static final int PONG_TIMEOUT = 10000; // 10 seconds
+    private static final int MIN_RECONNECT_DELAY = 2000; // 2 seconds
+    private static final int MAX_RECONNECT_DELAY = 60000; // 1 minute
+    private static final int MAX_RECONNECT_ATTEMPTS = 5;
+    private static final int NORMAL_CLOSURE = 1000;
+
+    public interface Listener {
+        void onSocketConnected();
+
+        void onSocketCommands(JsonArray commands);
+
+        void onSocketAckReceipt(List<String> commandIds);
+
+        void onSocketDisconnected();
+
+        void onSocketFallbackToPolling();
+    }
+
+    private final OkHttpClient client;
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+    private final String socketUrl;
+
+    private WebSocket webSocket;
+    private ScheduledFuture<?> heartbeatTask;
+    private ScheduledFuture<?> pongTimeoutTask;
+    private volatile boolean connected = false;
+    private volatile boolean closedByClient = false;
+    private boolean suspended = false;
+    private int failedAttempts = 0;
+
+    public CommandWebSocket(OkHttpClient baseClient, ScheduledExecutorService scheduler,
+                            String socketUrl, Listener listener) {
+        // Heartbeats detect dead connections, so the socket itself never times out on reads
+        this.client = baseClient.newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        this.scheduler = scheduler;
+        this.socketUrl = socketUrl;
+        this.listener = listener;
+    }
+
+    public synchronized void connect() {
+        if (suspended) {
+            return; // offline; resume() reconnects
+        }
+        closedByClient = false;
+        if (webSocket != null) {
+            return;
+        }
+
+        Log.d(TAG, "🔌 Connecting command socket (attempt " + (failedAttempts + 1) + ")");
+        Request request = new Request.Builder()
+                .url(socketUrl)
+                .addHeader("User-Agent", "KnetsJr/Bulletproof")
+                .build();
+        webSocket = client.newWebSocket(request, this);
+    }
+
+    public void close() {
+        boolean wasOpen;
+        synchronized (this) {
+            closedByClient = true;
+            connected = false;
+            cancelHeartbeat();
+            wasOpen = webSocket != null;
+            if (wasOpen) {
+                webSocket.close(NORMAL_CLOSURE, "client shutdown");
+                webSocket = null;
+            }
+        }
+        // The close callbacks of this socket are stale now, so report it here
+        if (wasOpen) {
+            listener.onSocketDisconnected();
+        }
+    }
+
+    /**
+     * Close the socket and ignore reconnect attempts until {@link #resume()}, e.g. while offline.
+     */
+    public void suspend() {
+        synchronized (this) {
+            suspended = true;
+        }
+        close();
+    }
+
+    /**
+     * Reconnect right away with a fresh attempt budget.
+     */
+    public synchronized void resume() {
+        suspended = false;
+        failedAttempts = 0;
+        connect();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Send a command acknowledgement over the socket.
+     *
+     * @return false if the socket is not connected and the caller should use HTTP instead
+     */
+    public boolean sendAck(AckOutbox.Entry entry, String deviceId) {
+        JsonObject ack = entry.toJson();
+        ack.addProperty("type", "ack");
+        ack.addProperty("deviceId", deviceId);
+        return send(ack);
+    }
+
+    private synchronized boolean send(JsonObject message) {
+        return connected && webSocket != null && webSocket.send(message.toString());
+    }
+
+    @Override
+    public void onOpen(WebSocket socket, Response response) {
+        synchronized (this) {
+            if (socket != webSocket) {
+                return; // closed or replaced while the handshake was in flight
+            }
+            connected = true;
+            failedAttempts = 0;
+        }
+        Log.i(TAG, "✅ Command socket connected");
+        startHeartbeat();
+        listener.onSocketConnected();
+    }
+
+    @Override
+    public void onMessage(WebSocket socket, String text) {
+        try {
+            JsonObject message = ApiJson.parseObject(text);
+            String type = message.has("type") ? message.get("type").getAsString() : "";
+
+            switch (type) {
+                case "pong":
+                    cancelPongTimeout();
+                    break;
+                case "commands":
+                    if (message.has("commands") && message.get("commands").isJsonArray()) {
+                        listener.onSocketCommands(message.get("commands").getAsJsonArray());
+                    }
+                    break;
+                case "command":
+                    JsonArray single = new JsonArray();
+                    single.add(message.has("command") ? message.get("command") : message);
+                    listener.onSocketCommands(single);
+                    break;
+                case "ackReceipt":
+                    if (message.has("commandIds") && message.get("commandIds").isJsonArray()) {
+                        List<String> commandIds = new ArrayList<>();
+                        for (JsonElement id : message.getAsJsonArray("commandIds")) {
+                            commandIds.add(id.getAsString());
+                        }
+                        listener.onSocketAckReceipt(commandIds);
+                    }
+                    break;
+                case "ping":
+                    JsonObject pong = new JsonObject();
+                    pong.addProperty("type", "pong");
+                    send(pong);
+                    break;
+                default:
+                    Log.w(TAG, "⚠️ Unknown socket message type: " + type);
+                    break;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Failed to handle socket message", e);
+        }
+    }
+
+    @Override
+    public void onClosing(WebSocket socket, int code, String reason) {
+        socket.close(NORMAL_CLOSURE, null);
+    }
+
+    @Override
+    public void onClosed(WebSocket socket, int code, String reason) {
+        Log.d(TAG, "🔌 Command socket closed: " + code + " " + reason);
+        handleDisconnect(socket);
+    }
+
+    @Override
+    public void onFailure(WebSocket socket, Throwable t, Response response) {
+        Log.w(TAG, "⚠️ Command socket failure" + (response != null ? " (HTTP " + response.code() + ")" : ""), t);
+        handleDisconnect(socket);
+    }
+
+    private void handleDisconnect(WebSocket socket) {
+        synchronized (this) {
+            if (socket != webSocket) {
+                return; // stale callback from a replaced socket
+            }
+            webSocket = null;
+            connected = false;
+            cancelHeartbeat();
+        }
+        // Acks sent on this socket may never be receipted now
+        listener.onSocketDisconnected();
+
+        synchronized (this) {
+            if (closedByClient) {
+                return;
+            }
+            failedAttempts++;
+        }
+
+        if (failedAttempts >= MAX_RECONNECT_ATTEMPTS) {
+            Log.w(TAG, "🚨 Command socket failed " + failedAttempts + " times, falling back to polling");
+            failedAttempts = 0;
+            listener.onSocketFallbackToPolling();
+            return;
+        }
+
+        long delay = Math.min((long) MIN_RECONNECT_DELAY << (failedAttempts - 1), MAX_RECONNECT_DELAY);
+        Log.d(TAG, "⏳ Reconnecting command socket in " + (delay / 1000) + " seconds");
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void startHeartbeat() {
+        cancelHeartbeat();
+        heartbeatTask = scheduler.scheduleAtFixedRate(this::sendHeartbeat,
+                HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendHeartbeat() {
+        JsonObject ping = new JsonObject();
+        ping.addProperty("type", "ping");
+        ping.addProperty("timestamp", System.currentTimeMillis());
+
+        if (!send(ping)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (pongTimeoutTask == null) {
+                pongTimeoutTask = scheduler.schedule(this::onPongTimeout, PONG_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void onPongTimeout() {
+        WebSocket socket;
+        synchronized (this) {
+            pongTimeoutTask = null;
+            socket = webSocket;
+        }
+
+        if (socket != null) {
+            Log.w(TAG, "💔 No heartbeat reply, dropping command socket");
+            // cancel() reports through onFailure, which schedules the reconnect
+            socket.cancel();
+        }
+    }
+
+    private synchronized void cancelPongTimeout() {
+        if (pongTimeoutTask != null) {
+            pongTimeoutTask.cancel(false);
+            pongTimeoutTask = null;
+        }
+    }
+
+    private synchronized void cancelHeartbeat() {
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+            heartbeatTask = null;
+        }
+        cancelPongTimeout();
+    }
+}
@@ -0,0 +1,16 @@
+package com.knets.jr;
+
+/**
+ * Body of a register-device request.
+ */
+public final class DeviceRegistration {
+    public final String parentCode;
+    public final String deviceImei;
+    public final String deviceInfo; // JSON-encoded device details, sent as a string
+    
+    public DeviceRegistration(String parentCode, String deviceImei, String deviceInfo) {
+        this.parentCode = parentCode;
+        this.deviceImei = deviceImei;
+        this.deviceInfo = deviceInfo;
+    }
+}
@@ -0,0 +1,62 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Reads the current device conditions for {@link PollingIntervalPolicy}.
+ */
+public final class DeviceStateMonitor {
+    private static final String TAG = "KnetsDeviceState";
+
+    private DeviceStateMonitor() {
+    }
+
+    public static PollingIntervalPolicy.DeviceState snapshot(Context context) {
+        boolean interactive = true;
+        boolean meteredCellular = false;
+        int batteryPercent = -1;
+        boolean charging = false;
+
+        try {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null) {
+                interactive = powerManager.isInteractive();
+            }
+
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (connectivityManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                NetworkCapabilities capabilities =
+                        connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+                meteredCellular = capabilities != null
+                        && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)
+                        && connectivityManager.isActiveNetworkMetered();
+            }
+
+            // Sticky broadcast - no receiver is registered
+            Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (battery != null) {
+                int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                if (level >= 0 && scale > 0) {
+                    batteryPercent = level * 100 / scale;
+                }
+                int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                        || status == BatteryManager.BATTERY_STATUS_FULL;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read device state, using defaults", e);
+        }
+
+        return new PollingIntervalPolicy.DeviceState(interactive, meteredCellular, batteryPercent, charging);
+    }
+}
@@ -14,7 +14,9 @@ import android.net.NetworkInfo;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.provider.Settings;
 import android.telephony.CellInfo;
 import android.telephony.CellInfoGsm;
@@ -34,13 +36,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -54,12 +55,16 @@ import okhttp3.Response;
  */
 public class EnhancedLocationService extends Service implements LocationListener {
     private static final String TAG = "KnetsEnhancedLocation";
+    private static final int UPLOAD_RETRY_BASE = 5000; // 5 seconds
+    private static final int UPLOAD_RETRY_MAX = 120000; // 2 minutes
+    private static final int MAX_UPLOAD_ATTEMPTS = 3;
     
     private LocationManager locationManager;
     private TelephonyManager telephonyManager;
     private WifiManager wifiManager;
-    private OkHttpClient httpClient;
     private String deviceImei;
+    private Handler retryHandler;
+    private final List<String> pendingCommandIds = new ArrayList<>(); // REQUEST_LOCATION commands awaiting a fix
     
     // Location method priorities
     private enum LocationMethod {
@@ -85,11 +90,7 @@ public class EnhancedLocationService extends Service implements LocationListener
         locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
         telephonyManager = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
         wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-        
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(15, TimeUnit.SECONDS)
-                .readTimeout(15, TimeUnit.SECONDS)
-                .build();
+        retryHandler = new Handler(Looper.getMainLooper());
         
         SharedPreferences prefs = getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
         deviceImei = prefs.getString("device_imei", "");
@@ -104,6 +105,12 @@ public class EnhancedLocationService extends Service implements LocationListener
         
         if ("REQUEST_LOCATION".equals(action)) {
             Log.d(TAG, "🌍 Multi-layer location request initiated by parent");
+            String commandId = intent.getStringExtra(CommandResults.EXTRA_COMMAND_ID);
+            if (commandId != null) {
+                synchronized (pendingCommandIds) {
+                    pendingCommandIds.add(commandId);
+                }
+            }
             requestLocationWithFallback();
         }
         
@@ -294,6 +301,9 @@ public class EnhancedLocationService extends Service implements LocationListener
             } catch (Exception e) {
                 Log.e(TAG, "❌ IP Geolocation: General exception", e);
             }
+            // Last fallback exhausted
+            completePendingCommands(CommandRegistry.STATUS_FAILED,
+                    CommandRegistry.error("LOCATION_UNAVAILABLE", "No location method produced a fix"));
         }).start();
     }
     
@@ -362,7 +372,7 @@ public class EnhancedLocationService extends Service implements LocationListener
             }
             reader.close();
             
-            return new com.google.gson.Gson().fromJson(response.toString(), JsonObject.class);
+            return ApiJson.parseObject(response.toString());
         }
         
         return null;
@@ -372,16 +382,12 @@ public class EnhancedLocationService extends Service implements LocationListener
      * Send IP-based location to server
      */
     private void sendIPLocationToServer(double latitude, double longitude, String source) {
-        JsonObject locationData = new JsonObject();
-        locationData.addProperty("deviceImei", deviceImei);
-        locationData.addProperty("latitude", latitude);
-        locationData.addProperty("longitude", longitude);
-        locationData.addProperty("accuracy", 5000); // IP location is less accurate
-        locationData.addProperty("timestamp", System.currentTimeMillis());
-        locationData.addProperty("provider", "ip_geolocation");
-        locationData.addProperty("source", source);
-        
-        sendDataToServer(locationData, "location-update");
+        // IP location is less accurate
+        LocationUpdate update = new LocationUpdate(deviceImei, latitude, longitude, 5000,
+                System.currentTimeMillis(), "ip_geolocation", null, null, source);
+        
+        completePendingCommands(CommandRegistry.STATUS_PROCESSED, fixResult(update));
+        sendDataToServer(ApiJson.LOCATION_ADAPTER.toJsonTree(update).getAsJsonObject(), "location-update");
     }
     
     /**
@@ -391,6 +397,8 @@ public class EnhancedLocationService extends Service implements LocationListener
         cellData.addProperty("deviceImei", deviceImei);
         cellData.addProperty("timestamp", System.currentTimeMillis());
         
+        // The server resolves cell ids to coordinates, so the result carries the raw cell
+        completePendingCommands(CommandRegistry.STATUS_PROCESSED, cellData.deepCopy());
         sendDataToServer(cellData, "cell-location");
     }
     
@@ -398,23 +406,53 @@ public class EnhancedLocationService extends Service implements LocationListener
      * Send standard location to server
      */
     private void sendLocationToServer(Location location, LocationMethod method) {
-        JsonObject locationData = new JsonObject();
-        locationData.addProperty("deviceImei", deviceImei);
-        locationData.addProperty("latitude", location.getLatitude());
-        locationData.addProperty("longitude", location.getLongitude());
-        locationData.addProperty("accuracy", location.getAccuracy());
-        locationData.addProperty("timestamp", System.currentTimeMillis());
-        locationData.addProperty("provider", method.name);
-        locationData.addProperty("altitude", location.getAltitude());
-        locationData.addProperty("speed", location.getSpeed());
-        
-        sendDataToServer(locationData, "location-update");
+        LocationUpdate update = new LocationUpdate(deviceImei, location.getLatitude(), location.getLongitude(),
+                location.getAccuracy(), System.currentTimeMillis(), method.name,
+                location.getAltitude(), location.getSpeed(), null);
+        
+        completePendingCommands(CommandRegistry.STATUS_PROCESSED, fixResult(update));
+        sendDataToServer(ApiJson.LOCATION_ADAPTER.toJsonTree(update).getAsJsonObject(), "location-update");
+    }
+    
+    /**
+     * Report the outcome to every parent command waiting for a fix, so it is acked with the result.
+     */
+    private void completePendingCommands(String status, JsonObject result) {
+        List<String> commandIds;
+        synchronized (pendingCommandIds) {
+            if (pendingCommandIds.isEmpty()) {
+                return;
+            }
+            commandIds = new ArrayList<>(pendingCommandIds);
+            pendingCommandIds.clear();
+        }
+        
+        for (String commandId : commandIds) {
+            CommandResults.get().complete(commandId, status, result);
+        }
+    }
+    
+    private static JsonObject fixResult(LocationUpdate update) {
+        JsonObject result = ApiJson.LOCATION_ADAPTER.toJsonTree(update).getAsJsonObject();
+        result.remove("deviceImei");
+        return result;
     }
     
     /**
      * Generic method to send data to server
      */
     private void sendDataToServer(JsonObject data, String endpoint) {
+        // Ride on the command engine's next sync when it is running
+        if (TelemetryOutbox.get().offer(endpoint, data)) {
+            Log.d(TAG, "📦 Queued " + endpoint + " for next sync");
+            return;
+        }
+        sendDataToServer(data, endpoint, 1);
+    }
+    
+    private void sendDataToServer(JsonObject data, String endpoint, int attempt) {
+        RetryPolicy retryPolicy = RetryPolicy.forEndpoint(endpoint, UPLOAD_RETRY_BASE, UPLOAD_RETRY_MAX);
+        
         RequestBody body = RequestBody.create(
                 MediaType.parse("application/json"), 
                 data.toString()
@@ -427,24 +465,39 @@ public class EnhancedLocationService extends Service implements LocationListener
                 .post(body)
                 .build();
         
-        httpClient.newCall(request).enqueue(new Callback() {
+        KnetsHttp.forEndpoint(endpoint).newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 Log.e(TAG, "Failed to send " + endpoint + " data", e);
+                retryUpload(data, endpoint, attempt, retryPolicy.onFailure());
             }
             
             @Override
             public void onResponse(Call call, Response response) throws IOException {
                 if (response.isSuccessful()) {
                     Log.d(TAG, "✅ " + endpoint + " data sent successfully");
+                    retryPolicy.onSuccess();
                 } else {
                     Log.e(TAG, "❌ " + endpoint + " failed: " + response.message());
+                    if (RetryPolicy.isRetryable(response.code())) {
+                        retryUpload(data, endpoint, attempt, retryPolicy.onHttpError(response));
+                    }
                 }
                 response.close();
             }
         });
     }
     
+    private void retryUpload(JsonObject data, String endpoint, int attempt, long delayMillis) {
+        if (attempt >= MAX_UPLOAD_ATTEMPTS) {
+            Log.w(TAG, "⚠️ Giving up on " + endpoint + " after " + attempt + " attempts");
+            return;
+        }
+        
+        Log.d(TAG, "⏳ Retrying " + endpoint + " in " + delayMillis + "ms");
+        retryHandler.postDelayed(() -> sendDataToServer(data, endpoint, attempt + 1), delayMillis);
+    }
+    
     // LocationListener implementation
     @Override
     public void onLocationChanged(Location location) {
@@ -522,6 +575,8 @@ public class EnhancedLocationService extends Service implements LocationListener
     @Override
     public void onDestroy() {
         super.onDestroy();
+        completePendingCommands(CommandRegistry.STATUS_FAILED,
+                CommandRegistry.error("SERVICE_STOPPED", "Location service stopped before a fix"));
         if (locationManager != null) {
             locationManager.removeUpdates(this);
         }
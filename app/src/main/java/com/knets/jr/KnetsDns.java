@@ -0,0 +1,194 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Dns;
+
+/**
+ * Caching resolver for the shared HTTP client.
+ *
+ * Answers are kept for {@link #FRESH_MILLIS}. After that a lookup still returns
+ * the cached addresses immediately and refreshes them in the background
+ * (stale-while-revalidate) for up to {@link #STALE_MILLIS}, so a poll does not wait
+ * on a slow resolver for a host it has reached recently. A failed blocking lookup
+ * falls back to the last known answer.
+ *
+ * Addresses are interleaved by family, and the family that last connected comes
+ * first. OkHttp 4 tries addresses one after another rather than racing them, so
+ * this keeps a broken IPv6 (or IPv4) path from costing a full connect timeout on
+ * every new connection. A failed connect only demotes its family once the other
+ * family has connected on the current network, so being offline or one flaky
+ * attempt does not pin the device to a family that never works.
+ *
+ * Answers and reachability belong to a network; {@link #onNetworkChanged()} forgets both.
+ */
+public class KnetsDns implements Dns {
+    private static final String TAG = "KnetsDns";
+    private static final long FRESH_MILLIS = 300000; // 5 minutes
+    private static final long STALE_MILLIS = 86400000; // 24 hours
+    
+    private static final class Entry {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+        
+        Entry(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+    
+    private final Dns system;
+    private final Map<String, Entry> cache = new HashMap<>();
+    private final Set<String> refreshing = new HashSet<>();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor();
+    private volatile boolean preferIpv6 = false;
+    private volatile boolean ipv4Reachable = false; // connected over this family on the current network
+    private volatile boolean ipv6Reachable = false;
+    
+    private long hits = 0;
+    private long staleHits = 0;
+    private long misses = 0;
+    
+    public KnetsDns(Dns system) {
+        this.system = system;
+    }
+    
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Entry entry;
+        synchronized (this) {
+            entry = cache.get(hostname);
+            if (entry != null) {
+                long age = System.currentTimeMillis() - entry.resolvedAt;
+                if (age < FRESH_MILLIS) {
+                    hits++;
+                    return order(entry.addresses);
+                }
+                if (age < STALE_MILLIS) {
+                    staleHits++;
+                    refreshInBackground(hostname);
+                    return order(entry.addresses);
+                }
+            }
+            misses++;
+        }
+        
+        try {
+            return order(resolve(hostname));
+        } catch (UnknownHostException e) {
+            if (entry != null) {
+                // Past the stale window, but an old answer still beats no connection
+                Log.w(TAG, "⚠️ Lookup of " + hostname + " failed, using cached answer");
+                return order(entry.addresses);
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Record which address family a new connection succeeded on.
+     */
+    public void onConnected(InetAddress address) {
+        boolean ipv6 = address instanceof Inet6Address;
+        if (ipv6) {
+            ipv6Reachable = true;
+        } else {
+            ipv4Reachable = true;
+        }
+        preferIpv6 = ipv6;
+    }
+    
+    /**
+     * Record a failed connection attempt. The other family goes first from now on, but
+     * only if it is known to connect; otherwise the failure says nothing about families.
+     */
+    public void onConnectFailed(InetAddress address) {
+        boolean ipv6 = address instanceof Inet6Address;
+        if (ipv6 ? ipv4Reachable : ipv6Reachable) {
+            preferIpv6 = !ipv6;
+        }
+    }
+    
+    /**
+     * The device moved to a different network: cached answers (split-horizon DNS, a
+     * captive portal's resolver) and family reachability may no longer hold.
+     */
+    public void onNetworkChanged() {
+        synchronized (this) {
+            cache.clear();
+        }
+        ipv4Reachable = false;
+        ipv6Reachable = false;
+    }
+    
+    public synchronized String getStats() {
+        return hits + " fresh hits, " + staleHits + " stale hits, " + misses + " lookups, "
+                + (preferIpv6 ? "IPv6" : "IPv4") + " first";
+    }
+    
+    private List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        List<InetAddress> addresses = Collections.unmodifiableList(new ArrayList<>(system.lookup(hostname)));
+        synchronized (this) {
+            cache.put(hostname, new Entry(addresses, System.currentTimeMillis()));
+        }
+        return addresses;
+    }
+    
+    private void refreshInBackground(String hostname) {
+        if (!refreshing.add(hostname)) {
+            return;
+        }
+        
+        refresher.execute(() -> {
+            try {
+                resolve(hostname);
+            } catch (UnknownHostException e) {
+                Log.d(TAG, "Background refresh of " + hostname + " failed: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    refreshing.remove(hostname);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Interleave the two families, preferred family first.
+     */
+    private List<InetAddress> order(List<InetAddress> addresses) {
+        List<InetAddress> preferred = new ArrayList<>();
+        List<InetAddress> other = new ArrayList<>();
+        boolean ipv6First = preferIpv6;
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == ipv6First) {
+                preferred.add(address);
+            } else {
+                other.add(address);
+            }
+        }
+        
+        List<InetAddress> ordered = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+            if (i < preferred.size()) {
+                ordered.add(preferred.get(i));
+            }
+            if (i < other.size()) {
+                ordered.add(other.get(i));
+            }
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,296 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.Dns;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * The one HTTP client of the process.
+ *
+ * Every component derives its client from a single base, so they all share one
+ * connection pool, one dispatcher and its threads, and one TLS session cache. A
+ * location upload right after a poll then reuses the poll's connection instead of
+ * paying for a new TCP and TLS handshake. Per-endpoint clients only differ in
+ * timeouts; {@link OkHttpClient#newBuilder()} keeps the shared pool and dispatcher.
+ *
+ * Connection acquisition is counted, so the reuse rate can be reported with the
+ * status heartbeat.
+ *
+ * HTTP/2 is negotiated first, so poll, ack and location requests to the backend are
+ * multiplexed as streams over one connection rather than queueing for a free HTTP/1.1
+ * connection. {@link #preWarm(String)} opens that connection ahead of a scheduled
+ * poll when the pool has nothing idle to reuse.
+ *
+ * Request bodies above {@link #GZIP_MIN_BYTES} are sent gzip-encoded. Support is
+ * negotiated per host: a server that answers a compressed body with 415 gets the
+ * request again uncompressed and is not sent compressed bodies any more. A 400 is
+ * also retried uncompressed, but only disables compression when that plain request
+ * succeeds. Responses are already requested and decoded as gzip by OkHttp itself.
+ *
+ * Host names resolve through {@link KnetsDns}, which caches answers and learns
+ * which address family connects.
+ */
+public final class KnetsHttp {
+    private static final String TAG = "KnetsHttp";
+    
+    public static final String ENDPOINT_SETUP = "setup"; // user-facing registration and verification
+    public static final String ENDPOINT_CELL_LOCATION = "cell-location";
+    
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final int KEEP_ALIVE_MINUTES = 5;
+    private static final int GZIP_MIN_BYTES = 1024; // below this the gzip header outweighs the savings
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    
+    private static final KnetsDns DNS = new KnetsDns(Dns.SYSTEM);
+    private static final ConnectionMetrics METRICS = new ConnectionMetrics();
+    private static final AtomicBoolean WARMING = new AtomicBoolean(false);
+    private static final AtomicLong PRE_WARMS = new AtomicLong();
+    private static final Set<String> GZIP_REJECTED_HOSTS =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final AtomicLong GZIP_BYTES_IN = new AtomicLong();
+    private static final AtomicLong GZIP_BYTES_OUT = new AtomicLong();
+    private static final Map<String, OkHttpClient> ENDPOINTS = new HashMap<>();
+    private static OkHttpClient base;
+    
+    private KnetsHttp() {
+    }
+    
+    /**
+     * @return the shared base client: 20s timeouts, used by poll, sync and ack traffic
+     */
+    public static synchronized OkHttpClient client() {
+        if (base == null) {
+            base = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .connectTimeout(20, TimeUnit.SECONDS)
+                    .readTimeout(20, TimeUnit.SECONDS)
+                    .writeTimeout(20, TimeUnit.SECONDS)
+                    .retryOnConnectionFailure(true)
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .dns(DNS)
+                    .addInterceptor(KnetsHttp::gzipRequest)
+                    .eventListener(METRICS)
+                    .build();
+        }
+        return base;
+    }
+    
+    /**
+     * @return a client for the endpoint, sharing the base client's pool and dispatcher
+     */
+    public static OkHttpClient forEndpoint(String endpoint) {
+        synchronized (ENDPOINTS) {
+            OkHttpClient client = ENDPOINTS.get(endpoint);
+            if (client == null) {
+                client = derive(endpoint);
+                ENDPOINTS.put(endpoint, client);
+            }
+            return client;
+        }
+    }
+    
+    private static OkHttpClient derive(String endpoint) {
+        switch (endpoint) {
+            case RetryPolicy.ENDPOINT_LOCATION:
+            case ENDPOINT_CELL_LOCATION:
+                // Small uploads: give up on a dead connection sooner, allow a slow server reply
+                return client().newBuilder()
+                        .connectTimeout(15, TimeUnit.SECONDS)
+                        .readTimeout(30, TimeUnit.SECONDS)
+                        .build();
+            case ENDPOINT_SETUP:
+                // The user is waiting on the setup screen; slow networks still have to succeed
+                return client().newBuilder()
+                        .connectTimeout(30, TimeUnit.SECONDS)
+                        .readTimeout(30, TimeUnit.SECONDS)
+                        .build();
+            default:
+                return client();
+        }
+    }
+    
+    /**
+     * Close pooled connections that are not carrying a request, e.g. after repeated
+     * network errors suggest they have gone stale.
+     */
+    public static void evictIdleConnections() {
+        client().connectionPool().evictAll();
+    }
+    
+    /**
+     * The device switched networks: drop pooled connections and the DNS state of the old one.
+     */
+    public static void onNetworkChanged() {
+        evictIdleConnections();
+        DNS.onNetworkChanged();
+    }
+    
+    /**
+     * Open a connection to the backend now if the pool has none idle, so the next
+     * request skips DNS, TCP and TLS setup. A HEAD of the base URL is the cheapest
+     * request that establishes it; its response is discarded.
+     */
+    public static void preWarm(String baseUrl) {
+        if (client().connectionPool().idleConnectionCount() > 0 || !WARMING.compareAndSet(false, true)) {
+            return;
+        }
+        
+        PRE_WARMS.incrementAndGet();
+        Request request = new Request.Builder()
+                .url(baseUrl + "/")
+                .head()
+                .build();
+        
+        client().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                WARMING.set(false);
+                Log.d(TAG, "Pre-warm failed: " + e.getMessage());
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) {
+                WARMING.set(false);
+                Log.d(TAG, "🔥 Connection warm (" + response.protocol() + ")");
+                response.close();
+            }
+        });
+    }
+    
+    private static Response gzipRequest(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        String host = request.url().host();
+        if (body == null || request.header("Content-Encoding") != null
+                || body.contentLength() < GZIP_MIN_BYTES || GZIP_REJECTED_HOSTS.contains(host)) {
+            return chain.proceed(request);
+        }
+        
+        Buffer compressed = new Buffer();
+        BufferedSink gzip = Okio.buffer(new GzipSink(compressed));
+        body.writeTo(gzip);
+        gzip.close();
+        if (compressed.size() >= body.contentLength()) {
+            return chain.proceed(request);
+        }
+        
+        GZIP_BYTES_IN.addAndGet(body.contentLength());
+        GZIP_BYTES_OUT.addAndGet(compressed.size());
+        Response response = chain.proceed(request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), RequestBody.create(compressed.readByteString(), body.contentType()))
+                .build());
+        
+        if (response.code() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+            // Server cannot decode gzip bodies: resend plain and stop compressing for this host
+            Log.w(TAG, "📦 " + host + " rejected gzip request body, sending uncompressed");
+            GZIP_REJECTED_HOSTS.add(host);
+            response.close();
+            return chain.proceed(request);
+        }
+        if (response.code() != HTTP_BAD_REQUEST) {
+            // Accepted, or an error unrelated to encoding; resending could apply a POST twice
+            return response;
+        }
+        
+        // Some body parsers report an undecodable body as a plain 400. The request was
+        // not applied, so it is safe to resend; only a plain success blames the encoding
+        response.close();
+        Response plain = chain.proceed(request);
+        if (plain.isSuccessful()) {
+            Log.w(TAG, "📦 " + host + " only accepts uncompressed request bodies");
+            GZIP_REJECTED_HOSTS.add(host);
+        }
+        return plain;
+    }
+    
+    /**
+     * @return connection reuse counters and the current pool size
+     */
+    public static JsonObject snapshot() {
+        ConnectionPool pool = client().connectionPool();
+        long acquired = METRICS.acquired.get();
+        long created = METRICS.created.get();
+        
+        JsonObject json = new JsonObject();
+        json.addProperty("acquired", acquired);
+        json.addProperty("created", created);
+        json.addProperty("failedConnects", METRICS.failed.get());
+        json.addProperty("http2", METRICS.http2.get());
+        json.addProperty("preWarms", PRE_WARMS.get());
+        json.addProperty("gzipBytesIn", GZIP_BYTES_IN.get());
+        json.addProperty("gzipBytesOut", GZIP_BYTES_OUT.get());
+        json.addProperty("reuseRate", acquired == 0 ? 0 : Math.max(0, acquired - created) / (double) acquired);
+        json.addProperty("pooled", pool.connectionCount());
+        json.addProperty("idle", pool.idleConnectionCount());
+        return json;
+    }
+    
+    public static void logMetrics() {
+        Log.i(TAG, "📊 Connections: " + snapshot());
+        Log.i(TAG, "📊 DNS: " + DNS.getStats());
+    }
+    
+    /**
+     * Counts connections handed to calls against connections that had to be opened.
+     * One instance serves every call, so it only keeps atomic counters.
+     */
+    private static final class ConnectionMetrics extends EventListener {
+        final AtomicLong acquired = new AtomicLong();
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong http2 = new AtomicLong();
+        
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            created.incrementAndGet();
+            DNS.onConnected(address.getAddress());
+            if (protocol == Protocol.HTTP_2) {
+                http2.incrementAndGet();
+            }
+        }
+        
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol,
+                                  IOException e) {
+            failed.incrementAndGet();
+            DNS.onConnectFailed(address.getAddress());
+        }
+        
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            acquired.incrementAndGet();
+        }
+    }
+}
@@ -14,7 +14,9 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -23,7 +25,6 @@ import androidx.core.content.ContextCompat;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -37,10 +38,15 @@ public class LocationService extends Service implements LocationListener {
     private static final String TAG = "KnetsJrLocation";
     private static final String CHANNEL_ID = "KnetsJrLocationChannel";
     private static final int NOTIFICATION_ID = 1001;
+    private static final int UPLOAD_RETRY_BASE = 5000; // 5 seconds
+    private static final int UPLOAD_RETRY_MAX = 120000; // 2 minutes
+    private static final int MAX_UPLOAD_ATTEMPTS = 3;
     
     private LocationManager locationManager;
     private OkHttpClient httpClient;
     private String deviceImei;
+    private Handler retryHandler;
+    private RetryPolicy uploadRetry;
     
     @Override
     public void onCreate() {
@@ -49,13 +55,13 @@ public class LocationService extends Service implements LocationListener {
         
         createNotificationChannel();
         
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
+        httpClient = KnetsHttp.forEndpoint(RetryPolicy.ENDPOINT_LOCATION);
         
         deviceImei = getSharedPreferences("knets_jr", Context.MODE_PRIVATE)
                 .getString("device_imei", "");
+        
+        retryHandler = new Handler(Looper.getMainLooper());
+        uploadRetry = RetryPolicy.forEndpoint(RetryPolicy.ENDPOINT_LOCATION, UPLOAD_RETRY_BASE, UPLOAD_RETRY_MAX);
     }
     
     @Override
@@ -145,14 +151,19 @@ public class LocationService extends Service implements LocationListener {
             return;
         }
         
-        JsonObject locationData = new JsonObject();
-        locationData.addProperty("deviceImei", deviceImei);
-        locationData.addProperty("latitude", location.getLatitude());
-        locationData.addProperty("longitude", location.getLongitude());
-        locationData.addProperty("accuracy", location.getAccuracy());
-        locationData.addProperty("timestamp", System.currentTimeMillis());
-        locationData.addProperty("provider", location.getProvider());
+        LocationUpdate update = new LocationUpdate(deviceImei, location.getLatitude(), location.getLongitude(),
+                location.getAccuracy(), System.currentTimeMillis(), location.getProvider(), null, null, null);
+        JsonObject locationData = ApiJson.LOCATION_ADAPTER.toJsonTree(update).getAsJsonObject();
         
+        // Ride on the command engine's next sync when it is running
+        if (TelemetryOutbox.get().offer(RetryPolicy.ENDPOINT_LOCATION, locationData)) {
+            Log.d(TAG, "Location queued for next sync");
+            return;
+        }
+        postLocationUpdate(locationData, 1);
+    }
+    
+    private void postLocationUpdate(JsonObject locationData, int attempt) {
         RequestBody body = RequestBody.create(
                 MediaType.parse("application/json"), 
                 locationData.toString()
@@ -169,20 +180,35 @@ public class LocationService extends Service implements LocationListener {
             @Override
             public void onFailure(Call call, IOException e) {
                 Log.e(TAG, "Failed to send location update", e);
+                retryLocationUpdate(locationData, attempt, uploadRetry.onFailure());
             }
             
             @Override
             public void onResponse(Call call, Response response) throws IOException {
                 if (response.isSuccessful()) {
                     Log.d(TAG, "Location update sent successfully");
+                    uploadRetry.onSuccess();
                 } else {
                     Log.e(TAG, "Location update failed: " + response.message());
+                    if (RetryPolicy.isRetryable(response.code())) {
+                        retryLocationUpdate(locationData, attempt, uploadRetry.onHttpError(response));
+                    }
                 }
                 response.close();
             }
         });
     }
     
+    private void retryLocationUpdate(JsonObject locationData, int attempt, long delayMillis) {
+        if (attempt >= MAX_UPLOAD_ATTEMPTS) {
+            Log.w(TAG, "Giving up on location update after " + attempt + " attempts");
+            return;
+        }
+        
+        Log.d(TAG, "Retrying location update in " + delayMillis + "ms");
+        retryHandler.postDelayed(() -> postLocationUpdate(locationData, attempt + 1), delayMillis);
+    }
+    
     @Override
     public void onStatusChanged(String provider, int status, Bundle extras) {
         Log.d(TAG, "Location provider status changed: " + provider + " = " + status);
@@ -0,0 +1,29 @@
+package com.knets.jr;
+
+/**
+ * Body of a location-update request. Optional fields are omitted when null.
+ */
+public final class LocationUpdate {
+    public final String deviceImei;
+    public final double latitude;
+    public final double longitude;
+    public final double accuracy;
+    public final long timestamp;
+    public final String provider;
+    public final Double altitude;
+    public final Float speed;
+    public final String source;
+    
+    public LocationUpdate(String deviceImei, double latitude, double longitude, double accuracy,
+                          long timestamp, String provider, Double altitude, Float speed, String source) {
+        this.deviceImei = deviceImei;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.timestamp = timestamp;
+        this.provider = provider;
+        this.altitude = altitude;
+        this.speed = speed;
+        this.source = source;
+    }
+}
@@ -38,11 +38,9 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -201,10 +199,7 @@ public class MainActivity extends AppCompatActivity {
         deviceAdminReceiver = new ComponentName(this, KnetsDeviceAdminReceiver.class);
         preferences = getSharedPreferences("knets_jr", Context.MODE_PRIVATE);
         
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
+        httpClient = KnetsHttp.forEndpoint(KnetsHttp.ENDPOINT_SETUP);
     }
     
     private void loadStoredData() {
@@ -447,7 +442,7 @@ public class MainActivity extends AppCompatActivity {
                     
                     if (response.isSuccessful()) {
                         try {
-                            JsonObject jsonResponse = new Gson().fromJson(responseBody, JsonObject.class);
+                            JsonObject jsonResponse = ApiJson.parseObject(responseBody);
                             boolean valid = jsonResponse.get("valid").getAsBoolean();
                             String message = jsonResponse.has("message") ? jsonResponse.get("message").getAsString() : "";
                             
@@ -544,7 +539,7 @@ public class MainActivity extends AppCompatActivity {
                     
                     if (response.isSuccessful()) {
                         try {
-                            JsonObject jsonResponse = new Gson().fromJson(responseBody, JsonObject.class);
+                            JsonObject jsonResponse = ApiJson.parseObject(responseBody);
                             boolean valid = jsonResponse.get("valid").getAsBoolean();
                             String message = jsonResponse.has("message") ? jsonResponse.get("message").getAsString() : "";
                             
@@ -614,7 +609,7 @@ public class MainActivity extends AppCompatActivity {
                     
                     if (response.isSuccessful()) {
                         try {
-                            JsonObject jsonResponse = new Gson().fromJson(responseBody, JsonObject.class);
+                            JsonObject jsonResponse = ApiJson.parseObject(responseBody);
                             boolean success = jsonResponse.get("success").getAsBoolean();
                             
                             if (success) {
@@ -763,14 +758,11 @@ public class MainActivity extends AppCompatActivity {
         
         showProgress("Registering device...");
         
-        JsonObject jsonBody = new JsonObject();
-        jsonBody.addProperty("parentCode", storedParentCode);
-        jsonBody.addProperty("deviceImei", deviceImei);
-        jsonBody.addProperty("deviceInfo", getDeviceInfoJson());
+        DeviceRegistration registration = new DeviceRegistration(storedParentCode, deviceImei, getDeviceInfoJson());
         
         RequestBody body = RequestBody.create(
                 MediaType.parse("application/json"), 
-                jsonBody.toString()
+                ApiJson.REGISTRATION_ADAPTER.toJson(registration)
         );
         
         Request request = new Request.Builder()
@@ -797,7 +789,7 @@ public class MainActivity extends AppCompatActivity {
                     
                     if (response.isSuccessful()) {
                         try {
-                            JsonObject jsonResponse = new Gson().fromJson(responseBody, JsonObject.class);
+                            JsonObject jsonResponse = ApiJson.parseObject(responseBody);
                             boolean success = jsonResponse.get("success").getAsBoolean();
                             
                             if (success) {
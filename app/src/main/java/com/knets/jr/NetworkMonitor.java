@@ -0,0 +1,149 @@
+package com.knets.jr;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reports when the device loses its last internet-capable network and when a
+ * network with validated internet access appears.
+ *
+ * Uses the default-network callback where available (API 24+), otherwise tracks
+ * every network with internet capability. A network that has internet capability
+ * but is not validated (captive portal, blocked probe) still counts as online, so
+ * traffic is only paused when there is no route at all; only validation triggers
+ * the immediate resume.
+ */
+public class NetworkMonitor {
+    private static final String TAG = "KnetsNetworkMonitor";
+    
+    public interface Listener {
+        void onNetworkLost();
+        
+        /**
+         * A network (the first one, or a different one) now has validated internet access.
+         */
+        void onNetworkValidated();
+    }
+    
+    private final ConnectivityManager connectivityManager;
+    private final Listener listener;
+    private final Map<Network, Boolean> networks = new HashMap<>(); // internet-capable network -> validated
+    private ConnectivityManager.NetworkCallback callback;
+    private boolean tracksDefault = false;
+    
+    public NetworkMonitor(Context context, Listener listener) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+    
+    /**
+     * Start listening.
+     *
+     * @return whether the device is online right now (true if it cannot be determined)
+     */
+    public synchronized boolean start() {
+        if (connectivityManager == null || callback != null) {
+            return true;
+        }
+        
+        // Seed with the current network so registering does not report it as new
+        Network active = connectivityManager.getActiveNetwork();
+        NetworkCapabilities capabilities = active != null ? connectivityManager.getNetworkCapabilities(active) : null;
+        if (capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            networks.put(active, capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED));
+        }
+        
+        callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                onCapabilities(network, networkCapabilities);
+            }
+            
+            @Override
+            public void onLost(Network network) {
+                onNetworkGone(network);
+            }
+        };
+        
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivityManager.registerDefaultNetworkCallback(callback);
+                tracksDefault = true;
+            } else {
+                connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build(), callback);
+            }
+        } catch (RuntimeException e) {
+            // Callback limit reached or missing permission; keep running as if always online
+            Log.w(TAG, "⚠️ Could not register network callback", e);
+            callback = null;
+            networks.clear();
+            return true;
+        }
+        
+        Log.d(TAG, "📶 Network monitor started, " + (networks.isEmpty() ? "offline" : "online"));
+        return !networks.isEmpty();
+    }
+    
+    public synchronized void stop() {
+        if (callback != null) {
+            try {
+                connectivityManager.unregisterNetworkCallback(callback);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Network callback already unregistered", e);
+            }
+            callback = null;
+        }
+        networks.clear();
+    }
+    
+    /**
+     * @return false only while no internet-capable network is known (true when not monitoring)
+     */
+    public synchronized boolean isOnline() {
+        return callback == null || !networks.isEmpty();
+    }
+    
+    private void onCapabilities(Network network, NetworkCapabilities capabilities) {
+        boolean validatedNow;
+        synchronized (this) {
+            if (!capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+                validatedNow = false;
+            } else {
+                boolean validated = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                if (tracksDefault && !networks.containsKey(network)) {
+                    // A new default network replaces the old one, whose onLost may never arrive
+                    networks.clear();
+                }
+                Boolean previous = networks.put(network, validated);
+                validatedNow = validated && !Boolean.TRUE.equals(previous);
+            }
+        }
+        
+        if (validatedNow) {
+            Log.i(TAG, "📶 Validated network available");
+            listener.onNetworkValidated();
+        }
+    }
+    
+    private void onNetworkGone(Network network) {
+        boolean offline;
+        synchronized (this) {
+            offline = networks.remove(network) != null && networks.isEmpty();
+        }
+        
+        if (offline) {
+            Log.w(TAG, "📴 No network available");
+            listener.onNetworkLost();
+        }
+    }
+}
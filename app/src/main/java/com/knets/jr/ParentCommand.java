@@ -0,0 +1,21 @@
+package com.knets.jr;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A parent command as delivered by any transport.
+ *
+ * The id and type are read once at parse time; the full object is kept as the
+ * payload for handlers and the command journal.
+ */
+public final class ParentCommand {
+    public final String id;
+    public final String type;
+    public final JsonObject payload;
+    
+    public ParentCommand(String id, String type, JsonObject payload) {
+        this.id = id;
+        this.type = type;
+        this.payload = payload;
+    }
+}
@@ -0,0 +1,216 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-flight scheduler for command polls.
+ *
+ * At most one poll is in flight and at most one is pending. The next fire time
+ * is only computed once the running poll reports completion through
+ * {@link #onPollCompleted(long, long)}. Triggers that arrive while a poll is pending or
+ * in flight are merged into it instead of starting a parallel poll chain.
+ *
+ * An optional pre-warm task runs a fixed lead time before each scheduled poll, so
+ * connection setup happens off the poll's critical path.
+ */
+public class PollScheduler {
+    private static final String TAG = "KnetsPollScheduler";
+    private static final long IN_FLIGHT_TIMEOUT = 120000; // 2 minutes, longer than any poll read timeout
+    
+    /**
+     * Starts one poll. Must call {@link #onPollCompleted(long, long)} with the same
+     * poll id exactly once when the poll finishes, successfully or not.
+     */
+    public interface PollTask {
+        void poll(long pollId);
+    }
+    
+    private final ScheduledExecutorService executor;
+    private final PollTask pollTask;
+    
+    private ScheduledFuture<?> pendingPoll;
+    private long pendingFireAt;
+    private long pendingSequence = 0;
+    private ScheduledFuture<?> inFlightWatchdog;
+    private boolean inFlight = false;
+    private long currentPollId = 0;
+    private boolean shutdown = false;
+    private boolean followUpRequested = false;
+    private Runnable preWarmTask;
+    private long preWarmLeadMillis;
+    private ScheduledFuture<?> pendingPreWarm;
+    
+    private long completedPolls = 0;
+    private long mergedTriggers = 0;
+    private long droppedTriggers = 0;
+    
+    public PollScheduler(ScheduledExecutorService executor, PollTask pollTask) {
+        this.executor = executor;
+        this.pollTask = pollTask;
+    }
+    
+    /**
+     * Run the task {@code leadMillis} before every poll scheduled further out than that.
+     */
+    public synchronized void setPreWarm(long leadMillis, Runnable task) {
+        this.preWarmLeadMillis = leadMillis;
+        this.preWarmTask = task;
+    }
+    
+    /**
+     * Request a poll after the given delay. Merged into an already pending poll
+     * (keeping the earlier fire time) and dropped while a poll is in flight.
+     */
+    public synchronized void requestPoll(long delayMillis) {
+        if (shutdown) {
+            return;
+        }
+        
+        if (inFlight) {
+            droppedTriggers++;
+            Log.d(TAG, "Poll in flight, dropping trigger (" + droppedTriggers + " dropped)");
+            return;
+        }
+        
+        long fireAt = System.currentTimeMillis() + delayMillis;
+        if (pendingPoll != null) {
+            mergedTriggers++;
+            if (fireAt >= pendingFireAt) {
+                return;
+            }
+            // Earlier trigger wins; the later pending poll is replaced, not duplicated
+            pendingPoll.cancel(false);
+        }
+        
+        schedule(delayMillis, fireAt);
+    }
+    
+    /**
+     * Request an immediate poll, or one right after the in-flight poll completes.
+     * Unlike {@link #requestPoll(long)} this is not dropped while a poll is in flight,
+     * for work (such as uploads) the running poll cannot have picked up.
+     */
+    public synchronized void requestFollowUpPoll() {
+        if (inFlight) {
+            followUpRequested = true;
+            return;
+        }
+        requestPoll(0);
+    }
+    
+    /**
+     * Report that the in-flight poll finished and schedule the next one.
+     */
+    public synchronized void onPollCompleted(long pollId, long nextDelayMillis) {
+        if (!inFlight || pollId != currentPollId) {
+            // Late completion of a poll the watchdog already released
+            droppedTriggers++;
+            Log.w(TAG, "Stale completion for poll " + pollId + ", ignoring");
+            return;
+        }
+        
+        inFlight = false;
+        completedPolls++;
+        if (inFlightWatchdog != null) {
+            inFlightWatchdog.cancel(false);
+            inFlightWatchdog = null;
+        }
+        
+        if (shutdown) {
+            return;
+        }
+        
+        if (followUpRequested) {
+            followUpRequested = false;
+            nextDelayMillis = 0;
+        }
+        
+        if (pendingPoll != null) {
+            pendingPoll.cancel(false);
+        }
+        schedule(nextDelayMillis, System.currentTimeMillis() + nextDelayMillis);
+    }
+    
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (pendingPoll != null) {
+            pendingPoll.cancel(false);
+            pendingPoll = null;
+        }
+        cancelPreWarm();
+        if (inFlightWatchdog != null) {
+            inFlightWatchdog.cancel(false);
+            inFlightWatchdog = null;
+        }
+    }
+    
+    public synchronized boolean isPollInFlight() {
+        return inFlight;
+    }
+    
+    public synchronized long getCompletedPollCount() {
+        return completedPolls;
+    }
+    
+    public synchronized long getMergedTriggerCount() {
+        return mergedTriggers;
+    }
+    
+    public synchronized long getDroppedTriggerCount() {
+        return droppedTriggers;
+    }
+    
+    private void schedule(long delayMillis, long fireAt) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        long sequence = ++pendingSequence;
+        pendingFireAt = fireAt;
+        pendingPoll = executor.schedule(() -> fire(sequence), Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        
+        cancelPreWarm();
+        if (preWarmTask != null && delayMillis > preWarmLeadMillis) {
+            pendingPreWarm = executor.schedule(preWarmTask, delayMillis - preWarmLeadMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void cancelPreWarm() {
+        if (pendingPreWarm != null) {
+            pendingPreWarm.cancel(false);
+            pendingPreWarm = null;
+        }
+    }
+    
+    private void fire(long sequence) {
+        long pollId;
+        synchronized (this) {
+            if (sequence != pendingSequence) {
+                return; // replaced by an earlier trigger after this task started
+            }
+            pendingPoll = null;
+            if (shutdown || inFlight) {
+                return;
+            }
+            inFlight = true;
+            pollId = ++currentPollId;
+            inFlightWatchdog = executor.schedule(() -> onInFlightTimeout(pollId),
+                    IN_FLIGHT_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        
+        try {
+            pollTask.poll(pollId);
+        } catch (Exception e) {
+            Log.e(TAG, "Poll task threw before completing, rescheduling", e);
+            onPollCompleted(pollId, IN_FLIGHT_TIMEOUT / 4);
+        }
+    }
+    
+    private void onInFlightTimeout(long pollId) {
+        Log.w(TAG, "Poll " + pollId + " did not complete within " + (IN_FLIGHT_TIMEOUT / 1000) + "s, releasing it");
+        onPollCompleted(pollId, 0);
+    }
+}
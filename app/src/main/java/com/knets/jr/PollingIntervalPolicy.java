@@ -0,0 +1,53 @@
+package com.knets.jr;
+
+/**
+ * Decides how long to wait before the next command poll.
+ *
+ * Implementations are pure Java so they can be driven by a fake {@link Clock}
+ * and hand-built {@link DeviceState} snapshots.
+ */
+public interface PollingIntervalPolicy {
+
+    /**
+     * @return delay in milliseconds before the next poll
+     */
+    long nextInterval(DeviceState state);
+
+    /**
+     * Record that a parent command was just received.
+     */
+    void onCommandActivity();
+
+    /**
+     * Time source, replaceable for deterministic tests.
+     */
+    interface Clock {
+        Clock SYSTEM = System::currentTimeMillis;
+
+        long now();
+    }
+
+    /**
+     * Observes every interval decision together with the reason for it.
+     */
+    interface Listener {
+        void onIntervalDecision(long intervalMillis, String reason);
+    }
+
+    /**
+     * Snapshot of the device conditions the policy reacts to.
+     */
+    final class DeviceState {
+        public final boolean interactive;
+        public final boolean meteredCellular;
+        public final int batteryPercent;
+        public final boolean charging;
+
+        public DeviceState(boolean interactive, boolean meteredCellular, int batteryPercent, boolean charging) {
+            this.interactive = interactive;
+            this.meteredCellular = meteredCellular;
+            this.batteryPercent = batteryPercent;
+            this.charging = charging;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.knets.jr;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import okhttp3.Response;
+
+/**
+ * Capped exponential backoff with full jitter, one instance per endpoint.
+ *
+ * Full jitter picks a uniformly random delay in [0, min(cap, base * 2^attempt)], so a
+ * fleet of devices recovering from the same outage spreads out instead of retrying
+ * in lock-step. Server-provided Retry-After (on 429 / 503) is honoured as a floor.
+ *
+ * Instances are process-wide and shared by the command engine, acknowledgements and
+ * location uploads, so state is kept per endpoint name.
+ */
+public class RetryPolicy {
+    public static final String ENDPOINT_POLL = "poll-command";
+    public static final String ENDPOINT_ACK = "acknowledge-command";
+    public static final String ENDPOINT_LOCATION = "location-update";
+    
+    private static final int MAX_EXPONENT = 16;
+    private static final Map<String, RetryPolicy> ENDPOINTS = new HashMap<>();
+    
+    private final String endpoint;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Random random;
+    
+    private int attempts = 0;
+    private long retryNotBefore = 0;
+    
+    RetryPolicy(String endpoint, long baseDelay, long maxDelay, Random random) {
+        this.endpoint = endpoint;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.random = random;
+    }
+    
+    /**
+     * Shared policy for an endpoint; the first caller's base and cap win.
+     */
+    public static RetryPolicy forEndpoint(String endpoint, long baseDelay, long maxDelay) {
+        synchronized (ENDPOINTS) {
+            RetryPolicy policy = ENDPOINTS.get(endpoint);
+            if (policy == null) {
+                policy = new RetryPolicy(endpoint, baseDelay, maxDelay, new Random());
+                ENDPOINTS.put(endpoint, policy);
+            }
+            return policy;
+        }
+    }
+    
+    public String getEndpoint() {
+        return endpoint;
+    }
+    
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+    
+    public synchronized void onSuccess() {
+        attempts = 0;
+        retryNotBefore = 0;
+    }
+    
+    /**
+     * Record a network-level failure.
+     *
+     * @return delay in milliseconds before the next attempt
+     */
+    public synchronized long onFailure() {
+        attempts++;
+        return applyFloor(jitteredDelay());
+    }
+    
+    /**
+     * Record an HTTP error response, honouring Retry-After on 429 and 503.
+     *
+     * @return delay in milliseconds before the next attempt
+     */
+    public synchronized long onHttpError(Response response) {
+        attempts++;
+        long delay = jitteredDelay();
+        
+        int code = response.code();
+        if (code == 429 || code == 503) {
+            long retryAfter = parseRetryAfter(response);
+            if (retryAfter >= 0) {
+                retryNotBefore = Math.max(retryNotBefore, System.currentTimeMillis() + retryAfter);
+            } else if (code == 429) {
+                // Throttled without a hint - skip straight to the capped window
+                delay = Math.max(delay, maxDelay / 2 + (long) (random.nextDouble() * (maxDelay / 2)));
+            }
+        }
+        
+        return applyFloor(delay);
+    }
+    
+    /**
+     * @return milliseconds the server asked us to stay away from this endpoint, or 0
+     */
+    public synchronized long remainingRetryAfter() {
+        return Math.max(0, retryNotBefore - System.currentTimeMillis());
+    }
+    
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+    
+    private long jitteredDelay() {
+        int exponent = Math.min(attempts - 1, MAX_EXPONENT);
+        long ceiling = Math.min(maxDelay, baseDelay << Math.max(0, exponent));
+        return (long) (random.nextDouble() * ceiling);
+    }
+    
+    private long applyFloor(long delay) {
+        return Math.max(delay, retryNotBefore - System.currentTimeMillis());
+    }
+    
+    private static long parseRetryAfter(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        
+        try {
+            return Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
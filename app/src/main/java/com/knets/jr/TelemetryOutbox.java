@@ -0,0 +1,98 @@
+package com.knets.jr;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide queue of telemetry (location and cell fixes) waiting to ride on the
+ * next command sync instead of being POSTed one by one.
+ *
+ * Location services offer their payloads here; when no {@link CommandEngine} is
+ * running to drain the queue the offer is refused and the caller posts directly.
+ */
+public final class TelemetryOutbox {
+    private static final String TAG = "KnetsTelemetryOutbox";
+    private static final int MAX_QUEUED = 50;
+    
+    private static final TelemetryOutbox INSTANCE = new TelemetryOutbox();
+    
+    public interface Listener {
+        void onTelemetryQueued();
+    }
+    
+    /**
+     * One queued payload and the legacy endpoint it would otherwise be posted to.
+     */
+    public static final class Entry {
+        public final String endpoint;
+        public final JsonObject data;
+        
+        Entry(String endpoint, JsonObject data) {
+            this.endpoint = endpoint;
+            this.data = data;
+        }
+    }
+    
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private Listener listener;
+    
+    private TelemetryOutbox() {
+    }
+    
+    public static TelemetryOutbox get() {
+        return INSTANCE;
+    }
+    
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * @return false if nothing drains the outbox and the caller should post directly
+     */
+    public boolean offer(String endpoint, JsonObject data) {
+        Listener current;
+        synchronized (this) {
+            current = listener;
+            if (current == null) {
+                return false;
+            }
+            
+            if (queue.size() >= MAX_QUEUED) {
+                queue.pollFirst();
+                Log.w(TAG, "Telemetry outbox full, dropping oldest entry");
+            }
+            queue.addLast(new Entry(endpoint, data));
+        }
+        
+        current.onTelemetryQueued();
+        return true;
+    }
+    
+    public synchronized List<Entry> drain() {
+        List<Entry> entries = new ArrayList<>(queue);
+        queue.clear();
+        return entries;
+    }
+    
+    /**
+     * Put entries from a failed sync back at the front, keeping their original order.
+     */
+    public synchronized void requeue(List<Entry> entries) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (queue.size() >= MAX_QUEUED) {
+                break;
+            }
+            queue.addFirst(entries.get(i));
+        }
+    }
+    
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+}
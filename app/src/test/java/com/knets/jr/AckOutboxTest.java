@@ -0,0 +1,116 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AckOutboxTest {
+    private final FakeSharedPreferences prefs = new FakeSharedPreferences();
+    private final AckOutbox outbox = new AckOutbox(prefs);
+    
+    private static List<String> ids(List<AckOutbox.Entry> batch) {
+        List<String> ids = new ArrayList<>();
+        for (AckOutbox.Entry entry : batch) {
+            ids.add(entry.commandId);
+        }
+        return ids;
+    }
+    
+    private void fill(int count) {
+        for (int i = 0; i < count; i++) {
+            outbox.add("cmd-" + i, "completed", null, null);
+        }
+    }
+    
+    @Test
+    public void claimedEntriesAreNotHandedOutTwice() {
+        fill(3);
+        List<AckOutbox.Entry> first = outbox.claim(2);
+        assertEquals(2, first.size());
+        assertEquals("cmd-0", first.get(0).commandId);
+        
+        List<AckOutbox.Entry> second = outbox.claim(10);
+        assertEquals(1, second.size());
+        assertEquals("cmd-2", second.get(0).commandId);
+        assertFalse(outbox.hasUnclaimed());
+        assertTrue(outbox.claim(10).isEmpty());
+    }
+    
+    @Test
+    public void releasedEntriesAreClaimableAgain() {
+        fill(2);
+        List<AckOutbox.Entry> batch = outbox.claim(10);
+        outbox.release(batch);
+        
+        assertTrue(outbox.hasUnclaimed());
+        assertEquals(ids(batch), ids(outbox.claim(10)));
+        assertEquals(2, outbox.size());
+    }
+    
+    @Test
+    public void confirmedEntriesLeaveTheOutbox() {
+        fill(3);
+        outbox.confirm(outbox.claim(2));
+        
+        assertEquals(1, outbox.size());
+        assertEquals("cmd-2", outbox.claim(10).get(0).commandId);
+    }
+    
+    @Test
+    public void duplicateAddIsIgnored() {
+        outbox.add("cmd-0", "completed", null, null);
+        outbox.add("cmd-0", "failed", null, null);
+        
+        assertEquals(1, outbox.size());
+        assertEquals("completed", outbox.claim(1).get(0).status);
+    }
+    
+    @Test
+    public void unconfirmedAcksSurviveRestart() {
+        fill(3);
+        List<AckOutbox.Entry> inFlight = outbox.claim(1);
+        outbox.confirm(outbox.claim(1));
+        
+        // The in-flight claim dies with the process; its ack is delivered again
+        AckOutbox restored = new AckOutbox(prefs);
+        assertEquals(2, restored.size());
+        List<String> expected = new ArrayList<>(ids(inFlight));
+        expected.add("cmd-2");
+        assertEquals(expected, ids(restored.claim(10)));
+    }
+    
+    @Test
+    public void capacityDropsOldestUnclaimedAck() {
+        fill(AckOutbox.MAX_ENTRIES);
+        assertTrue(outbox.isFull());
+        List<AckOutbox.Entry> inFlight = outbox.claim(2);
+        
+        outbox.add("newest", "completed", null, null);
+        
+        assertEquals(AckOutbox.MAX_ENTRIES, outbox.size());
+        assertEquals(1, outbox.getDroppedCount());
+        // cmd-0 and cmd-1 were in flight, so cmd-2 went instead
+        outbox.confirm(inFlight);
+        List<String> remaining = ids(outbox.claim(AckOutbox.MAX_ENTRIES));
+        assertEquals("cmd-3", remaining.get(0));
+        assertEquals("newest", remaining.get(remaining.size() - 1));
+    }
+    
+    @Test
+    public void inFlightAcksAreNeverDropped() {
+        fill(AckOutbox.MAX_ENTRIES);
+        outbox.claim(AckOutbox.MAX_ENTRIES);
+        
+        outbox.add("overflow", "completed", null, null);
+        
+        assertEquals(AckOutbox.MAX_ENTRIES + 1, outbox.size());
+        assertEquals(0, outbox.getDroppedCount());
+        assertTrue(outbox.isFull());
+        assertEquals("overflow", outbox.claim(10).get(0).commandId);
+    }
+}
@@ -0,0 +1,107 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AdaptivePollingIntervalPolicyTest {
+    private static final PollingIntervalPolicy.DeviceState SCREEN_ON =
+            new PollingIntervalPolicy.DeviceState(true, false, 80, false);
+    private static final PollingIntervalPolicy.DeviceState SCREEN_OFF =
+            new PollingIntervalPolicy.DeviceState(false, false, 80, false);
+    
+    private long now;
+    private final List<String> decisions = new ArrayList<>();
+    private AdaptivePollingIntervalPolicy policy;
+    
+    @Before
+    public void setUp() {
+        now = 1000000;
+        policy = new AdaptivePollingIntervalPolicy(() -> now,
+                (intervalMillis, reason) -> decisions.add(intervalMillis + " " + reason));
+    }
+    
+    @Test
+    public void baselineWhileRecentlyInteractive() {
+        assertEquals(AdaptivePollingIntervalPolicy.BASE_INTERVAL, policy.nextInterval(SCREEN_OFF));
+        assertEquals("baseline", policy.getLastReason());
+    }
+    
+    @Test
+    public void screenOnPollsFaster() {
+        assertEquals(AdaptivePollingIntervalPolicy.INTERACTIVE_INTERVAL, policy.nextInterval(SCREEN_ON));
+    }
+    
+    @Test
+    public void commandActivityWinsUntilWindowEnds() {
+        policy.onCommandActivity();
+        PollingIntervalPolicy.DeviceState lowBattery = new PollingIntervalPolicy.DeviceState(false, true, 5, false);
+        assertEquals(AdaptivePollingIntervalPolicy.ACTIVE_INTERVAL, policy.nextInterval(lowBattery));
+        
+        now += AdaptivePollingIntervalPolicy.ACTIVITY_WINDOW - 1;
+        assertEquals(AdaptivePollingIntervalPolicy.ACTIVE_INTERVAL, policy.nextInterval(SCREEN_OFF));
+        
+        now += 1;
+        assertEquals(AdaptivePollingIntervalPolicy.BASE_INTERVAL, policy.nextInterval(SCREEN_OFF));
+    }
+    
+    @Test
+    public void idleAfterThresholdWithoutScreenOrCommands() {
+        policy.nextInterval(SCREEN_ON);
+        
+        now += AdaptivePollingIntervalPolicy.IDLE_THRESHOLD - 1;
+        assertEquals(AdaptivePollingIntervalPolicy.BASE_INTERVAL, policy.nextInterval(SCREEN_OFF));
+        
+        now += 1;
+        assertEquals(AdaptivePollingIntervalPolicy.IDLE_INTERVAL, policy.nextInterval(SCREEN_OFF));
+        assertEquals("device idle", policy.getLastReason());
+    }
+    
+    @Test
+    public void lowBatteryStretchesUnlessCharging() {
+        PollingIntervalPolicy.DeviceState low = new PollingIntervalPolicy.DeviceState(true, false,
+                AdaptivePollingIntervalPolicy.LOW_BATTERY_PERCENT, false);
+        assertEquals(AdaptivePollingIntervalPolicy.LOW_BATTERY_INTERVAL, policy.nextInterval(low));
+        
+        PollingIntervalPolicy.DeviceState charging = new PollingIntervalPolicy.DeviceState(true, false,
+                AdaptivePollingIntervalPolicy.LOW_BATTERY_PERCENT, true);
+        assertEquals(AdaptivePollingIntervalPolicy.INTERACTIVE_INTERVAL, policy.nextInterval(charging));
+    }
+    
+    @Test
+    public void unknownBatteryLevelIsNotLow() {
+        PollingIntervalPolicy.DeviceState unknown = new PollingIntervalPolicy.DeviceState(false, false, -1, false);
+        assertEquals(AdaptivePollingIntervalPolicy.BASE_INTERVAL, policy.nextInterval(unknown));
+    }
+    
+    @Test
+    public void meteredCellularDoublesUpToCap() {
+        PollingIntervalPolicy.DeviceState metered = new PollingIntervalPolicy.DeviceState(false, true, 80, false);
+        assertEquals(AdaptivePollingIntervalPolicy.BASE_INTERVAL * AdaptivePollingIntervalPolicy.METERED_MULTIPLIER,
+                policy.nextInterval(metered));
+        assertTrue(policy.getLastReason().endsWith("metered cellular"));
+        
+        now += AdaptivePollingIntervalPolicy.IDLE_THRESHOLD;
+        long idle = policy.nextInterval(metered);
+        assertEquals(Math.min(AdaptivePollingIntervalPolicy.IDLE_INTERVAL * AdaptivePollingIntervalPolicy.METERED_MULTIPLIER,
+                AdaptivePollingIntervalPolicy.MAX_INTERVAL), idle);
+        assertTrue(idle <= AdaptivePollingIntervalPolicy.MAX_INTERVAL);
+    }
+    
+    @Test
+    public void listenerOnlyHearsChanges() {
+        policy.nextInterval(SCREEN_OFF);
+        policy.nextInterval(SCREEN_OFF);
+        policy.nextInterval(SCREEN_ON);
+        policy.nextInterval(SCREEN_ON);
+        
+        assertEquals(2, decisions.size());
+        assertEquals(AdaptivePollingIntervalPolicy.BASE_INTERVAL + " baseline", decisions.get(0));
+        assertEquals(AdaptivePollingIntervalPolicy.INTERACTIVE_INTERVAL + " screen interactive", decisions.get(1));
+    }
+}
@@ -0,0 +1,96 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class CommandCoalescerTest {
+    private final CommandCoalescer coalescer = new CommandCoalescer();
+    
+    private static ParentCommand command(String id, String type) {
+        return new ParentCommand(id, type, new JsonObject());
+    }
+    
+    @Test
+    public void commandsWithoutKeyNeverCoalesce() {
+        assertNotNull(coalescer.offer(command("1", "REQUEST_LOCATION"), null));
+        assertNotNull(coalescer.offer(command("2", "REQUEST_LOCATION"), null));
+        assertEquals(0, coalescer.getMergedCount());
+    }
+    
+    @Test
+    public void sameTypeMergesIntoQueuedGroup() {
+        CommandCoalescer.Group group = coalescer.offer(command("1", "REQUEST_LOCATION"), "location");
+        assertNotNull(group);
+        assertNull(coalescer.offer(command("2", "REQUEST_LOCATION"), "location"));
+        assertNull(coalescer.offer(command("3", "REQUEST_LOCATION"), "location"));
+        
+        assertEquals("1", group.getCommand().id);
+        assertEquals(Arrays.asList("2", "3"), group.getMergedIds());
+        assertTrue(group.getSupersededIds().isEmpty());
+        assertEquals(2, coalescer.getMergedCount());
+    }
+    
+    @Test
+    public void opposingTypeSupersedesQueuedCommandAndItsMerges() {
+        CommandCoalescer.Group group = coalescer.offer(command("1", "LOCK_DEVICE"), "device_lock");
+        coalescer.offer(command("2", "LOCK_DEVICE"), "device_lock");
+        assertNull(coalescer.offer(command("3", "UNLOCK_DEVICE"), "device_lock"));
+        
+        assertEquals("3", group.getCommand().id);
+        assertEquals("UNLOCK_DEVICE", group.getCommand().type);
+        assertEquals(Arrays.asList("1", "2"), group.getSupersededIds());
+        assertTrue(group.getMergedIds().isEmpty());
+        assertEquals(2, coalescer.getSupersededCount());
+        
+        // Last one wins again
+        coalescer.offer(command("4", "LOCK_DEVICE"), "device_lock");
+        assertEquals("4", group.getCommand().id);
+        assertEquals(Arrays.asList("1", "2", "3"), group.getSupersededIds());
+    }
+    
+    @Test
+    public void takenGroupIsSnapshotAndDetached() {
+        CommandCoalescer.Group group = coalescer.offer(command("1", "REQUEST_LOCATION"), "location");
+        coalescer.offer(command("2", "REQUEST_LOCATION"), "location");
+        
+        CommandCoalescer.Group running = coalescer.take(group);
+        assertNotSame(group, running);
+        assertEquals(Collections.singletonList("2"), running.getMergedIds());
+        
+        // Arrives after execution started, so it queues a fresh execution
+        CommandCoalescer.Group next = coalescer.offer(command("3", "REQUEST_LOCATION"), "location");
+        assertNotNull(next);
+        assertEquals("3", next.getCommand().id);
+        assertEquals(Collections.singletonList("2"), running.getMergedIds());
+    }
+    
+    @Test
+    public void releasedGroupNoLongerCollectsCommands() {
+        CommandCoalescer.Group group = coalescer.offer(command("1", "REQUEST_LOCATION"), "location");
+        coalescer.release(group);
+        
+        assertNotNull(coalescer.offer(command("2", "REQUEST_LOCATION"), "location"));
+        assertTrue(group.getMergedIds().isEmpty());
+    }
+    
+    @Test
+    public void releasingStaleGroupKeepsCurrentOne() {
+        CommandCoalescer.Group first = coalescer.offer(command("1", "REQUEST_LOCATION"), "location");
+        coalescer.take(first);
+        CommandCoalescer.Group second = coalescer.offer(command("2", "REQUEST_LOCATION"), "location");
+        
+        coalescer.release(first);
+        assertNull(coalescer.offer(command("3", "REQUEST_LOCATION"), "location"));
+        assertEquals(Collections.singletonList("3"), second.getMergedIds());
+    }
+}
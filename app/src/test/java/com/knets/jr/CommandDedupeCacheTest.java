@@ -0,0 +1,85 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+public class CommandDedupeCacheTest {
+    private final FakeSharedPreferences prefs = new FakeSharedPreferences();
+    private final CommandDedupeCache cache = new CommandDedupeCache(prefs);
+    
+    private static JsonObject stored(String id, String status, long seenAt) {
+        JsonObject object = new JsonObject();
+        object.addProperty("id", id);
+        object.addProperty("status", status);
+        object.addProperty("seenAt", seenAt);
+        return object;
+    }
+    
+    @Test
+    public void duplicateClaimReportsStatus() {
+        assertNull(cache.claim("1"));
+        assertEquals(CommandDedupeCache.STATUS_IN_PROGRESS, cache.claim("1"));
+        
+        JsonObject result = new JsonObject();
+        result.addProperty("locked", true);
+        cache.complete("1", "completed", result);
+        
+        assertEquals("completed", cache.claim("1"));
+        assertEquals(result, cache.getResult("1"));
+        assertEquals(2, cache.getDuplicateCount());
+    }
+    
+    @Test
+    public void releaseForgetsOnlyInProgressClaims() {
+        cache.claim("1");
+        cache.release("1");
+        assertNull(cache.claim("1"));
+        
+        cache.complete("1", "completed", null);
+        cache.release("1");
+        assertEquals("completed", cache.claim("1"));
+    }
+    
+    @Test
+    public void leastRecentlySeenIdIsEvicted() {
+        for (int i = 0; i < CommandDedupeCache.MAX_ENTRIES; i++) {
+            cache.claim("cmd-" + i);
+        }
+        // A redelivery refreshes cmd-0, so cmd-1 is now the eldest
+        cache.claim("cmd-0");
+        cache.claim("overflow");
+        
+        assertEquals(CommandDedupeCache.STATUS_IN_PROGRESS, cache.claim("cmd-0"));
+        assertNull(cache.claim("cmd-1"));
+    }
+    
+    @Test
+    public void expiredEntriesAreNotRestored() {
+        long now = System.currentTimeMillis();
+        JsonArray array = new JsonArray();
+        array.add(stored("old", "completed", now - CommandDedupeCache.RETENTION - 1000));
+        array.add(stored("recent", "completed", now - 1000));
+        prefs.edit().putString("processed_command_ids", array.toString()).commit();
+        
+        CommandDedupeCache restored = new CommandDedupeCache(prefs);
+        assertNull(restored.claim("old"));
+        assertEquals("completed", restored.claim("recent"));
+    }
+    
+    @Test
+    public void inProgressClaimsAreNotPersisted() {
+        cache.claim("running");
+        cache.claim("done");
+        cache.complete("done", "failed", null);
+        
+        // A command interrupted by process death must run again on redelivery
+        CommandDedupeCache restored = new CommandDedupeCache(prefs);
+        assertNull(restored.claim("running"));
+        assertEquals("failed", restored.claim("done"));
+    }
+}
@@ -0,0 +1,103 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class CommandEnginePollTest {
+    private static final String IMEI = "358240051111110";
+    
+    private final FakeSharedPreferences prefs = new FakeSharedPreferences();
+    private final OkHttpClient client = new OkHttpClient();
+    private MockWebServer server;
+    
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        // Same form a tester enters by hand: scheme, host and port without a trailing slash
+        prefs.edit().putString("server_url", "http://" + server.getHostName() + ":" + server.getPort()).commit();
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+    
+    private Response execute(Request request) throws IOException {
+        return client.newCall(request).execute();
+    }
+    
+    private RecordedRequest takeRequest() throws InterruptedException {
+        return server.takeRequest(1, TimeUnit.SECONDS);
+    }
+    
+    @Test
+    public void defaultsToProductionServer() {
+        assertEquals("https://knets-thinkbacktechno.replit.app",
+                CommandEngine.serverBaseUrl(new FakeSharedPreferences()));
+    }
+    
+    @Test
+    public void unchangedQueueIsAnswered304() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", "\"queue-1\"")
+                .setBody("{\"commands\":[]}"));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        
+        String baseUrl = CommandEngine.serverBaseUrl(prefs);
+        String etag;
+        try (Response response = execute(
+                CommandEngine.pollRequest(baseUrl, IMEI, false, false, null, false).build())) {
+            assertEquals(200, response.code());
+            etag = response.header("ETag");
+        }
+        RecordedRequest first = takeRequest();
+        assertEquals("/api/knets-jr/poll-command?deviceImei=" + IMEI, first.getPath());
+        assertNull(first.getHeader("If-None-Match"));
+        
+        try (Response response = execute(
+                CommandEngine.pollRequest(baseUrl, IMEI, false, false, etag, false).build())) {
+            assertEquals(304, response.code());
+            assertEquals("", response.body().string());
+        }
+        assertEquals("\"queue-1\"", takeRequest().getHeader("If-None-Match"));
+    }
+    
+    @Test
+    public void longPollAsksServerToHold() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"commands\":[]}"));
+        
+        try (Response response = execute(CommandEngine.pollRequest(
+                CommandEngine.serverBaseUrl(prefs), IMEI, false, false, null, true).build())) {
+            assertEquals(200, response.code());
+        }
+        RecordedRequest request = takeRequest();
+        assertEquals("/api/knets-jr/poll-command?deviceImei=" + IMEI + "&wait=25", request.getPath());
+        assertEquals("25", request.getHeader("X-Knets-Long-Poll"));
+    }
+    
+    @Test
+    public void legacyServersArePolledPerDevice() throws Exception {
+        server.enqueue(new MockResponse().setBody("[]"));
+        
+        try (Response response = execute(CommandEngine.pollRequest(
+                CommandEngine.serverBaseUrl(prefs), IMEI, false, true, null, false).build())) {
+            assertEquals(200, response.code());
+        }
+        assertEquals("/api/knets-jr/check-commands/" + IMEI, takeRequest().getPath());
+    }
+}
@@ -0,0 +1,126 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class CommandJournalTest {
+    private File file;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("command_journal", ".log");
+    }
+    
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+    
+    private static JsonObject command(String id, String type) {
+        JsonObject command = new JsonObject();
+        command.addProperty("id", id);
+        command.addProperty("commandType", type);
+        return command;
+    }
+    
+    private static String record(String id, String state, JsonObject command) {
+        JsonObject record = new JsonObject();
+        record.addProperty("id", id);
+        record.addProperty("state", state);
+        if (command != null) {
+            record.add("command", command);
+        }
+        record.addProperty("at", 1L);
+        return record.toString();
+    }
+    
+    private void writeFile(String contents) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(contents.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    private static CommandRegistry.Definition definition(boolean idempotent) {
+        return new CommandRegistry.Definition("LOCK_DEVICE", CommandRegistry.Priority.SECURITY,
+                idempotent, null, 1000, null);
+    }
+    
+    @Test
+    public void tornLastLineIsSkipped() throws IOException {
+        writeFile(record("1", CommandJournal.STATE_RECEIVED, command("1", "LOCK_DEVICE")) + "\n"
+                + record("2", CommandJournal.STATE_RECEIVED, command("2", "REQUEST_LOCATION")) + "\n"
+                + "{\"id\":\"3\",\"state\":\"rec");
+        
+        CommandJournal journal = new CommandJournal(file);
+        List<CommandJournal.PendingCommand> pending = journal.recover();
+        journal.close();
+        
+        assertEquals(2, pending.size());
+        assertEquals("1", pending.get(0).command.get("id").getAsString());
+        assertEquals("2", pending.get(1).command.get("id").getAsString());
+        assertFalse(pending.get(0).interrupted);
+    }
+    
+    @Test
+    public void onlyUnfinishedCommandsAreRecovered() throws IOException {
+        writeFile(record("1", CommandJournal.STATE_RECEIVED, command("1", "LOCK_DEVICE")) + "\n"
+                + record("2", CommandJournal.STATE_RECEIVED, command("2", "UNLOCK_DEVICE")) + "\n"
+                + record("1", CommandJournal.STATE_EXECUTING, null) + "\n"
+                + record("2", CommandJournal.STATE_EXECUTING, null) + "\n"
+                + record("2", CommandJournal.STATE_DONE, null) + "\n");
+        
+        CommandJournal journal = new CommandJournal(file);
+        List<CommandJournal.PendingCommand> pending = journal.recover();
+        journal.close();
+        
+        assertEquals(1, pending.size());
+        assertEquals("1", pending.get(0).command.get("id").getAsString());
+        assertTrue(pending.get(0).interrupted);
+    }
+    
+    @Test
+    public void interruptedNonIdempotentCommandIsNotReplayed() {
+        CommandJournal.PendingCommand interrupted = new CommandJournal.PendingCommand(command("1", "LOCK_DEVICE"), true);
+        assertFalse(interrupted.canReplay(definition(false)));
+        assertTrue(interrupted.canReplay(definition(true)));
+        // Unknown types are dispatched and rejected by the registry as usual
+        assertTrue(interrupted.canReplay(null));
+        
+        CommandJournal.PendingCommand received = new CommandJournal.PendingCommand(command("2", "LOCK_DEVICE"), false);
+        assertTrue(received.canReplay(definition(false)));
+    }
+    
+    @Test
+    public void journaledStatesSurviveRestart() {
+        CommandJournal journal = new CommandJournal(file);
+        // Held in memory until recovery opens the file
+        journal.received("1", command("1", "LOCK_DEVICE"));
+        assertTrue(journal.recover().isEmpty());
+        journal.received("2", command("2", "REQUEST_LOCATION"));
+        journal.executing("2");
+        journal.executing("1");
+        journal.done("1");
+        journal.close();
+        
+        CommandJournal restarted = new CommandJournal(file);
+        List<CommandJournal.PendingCommand> pending = restarted.recover();
+        restarted.close();
+        
+        assertEquals(1, pending.size());
+        assertEquals("2", pending.get(0).command.get("id").getAsString());
+        assertTrue(pending.get(0).interrupted);
+    }
+}
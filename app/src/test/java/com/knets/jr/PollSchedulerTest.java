@@ -0,0 +1,137 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class PollSchedulerTest {
+    private static final long FAR = 60000; // never fires during a test
+    private static final long WAIT = 2000; // generous bound for a poll that should fire now
+    private static final long QUIET = 200; // how long to watch for a poll that should not fire
+    
+    private final BlockingQueue<Long> polls = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService executor;
+    private PollScheduler scheduler;
+    
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        scheduler = new PollScheduler(executor, polls::add);
+    }
+    
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+        executor.shutdownNow();
+    }
+    
+    private long awaitPoll() throws InterruptedException {
+        Long pollId = polls.poll(WAIT, TimeUnit.MILLISECONDS);
+        assertNotNull("expected a poll", pollId);
+        return pollId;
+    }
+    
+    private void assertNoPoll() throws InterruptedException {
+        assertNull("unexpected poll", polls.poll(QUIET, TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void earlierTriggerReplacesPendingPoll() throws InterruptedException {
+        scheduler.requestPoll(FAR);
+        scheduler.requestPoll(0);
+        
+        awaitPoll();
+        assertEquals(1, scheduler.getMergedTriggerCount());
+        assertNoPoll();
+    }
+    
+    @Test
+    public void laterTriggerKeepsEarlierFireTime() throws InterruptedException {
+        scheduler.requestPoll(50);
+        scheduler.requestPoll(FAR);
+        
+        awaitPoll();
+        assertEquals(1, scheduler.getMergedTriggerCount());
+    }
+    
+    @Test
+    public void triggersWhileInFlightAreDropped() throws InterruptedException {
+        scheduler.requestPoll(0);
+        long pollId = awaitPoll();
+        assertTrue(scheduler.isPollInFlight());
+        
+        scheduler.requestPoll(0);
+        scheduler.requestPoll(0);
+        assertNoPoll();
+        assertEquals(2, scheduler.getDroppedTriggerCount());
+        
+        scheduler.onPollCompleted(pollId, 0);
+        assertEquals(pollId + 1, awaitPoll());
+        assertEquals(1, scheduler.getCompletedPollCount());
+    }
+    
+    @Test
+    public void completionSchedulesNextPoll() throws InterruptedException {
+        scheduler.requestPoll(0);
+        long pollId = awaitPoll();
+        
+        scheduler.onPollCompleted(pollId, FAR);
+        assertFalse(scheduler.isPollInFlight());
+        assertNoPoll();
+        
+        // The next trigger merges into the pending poll rather than starting a second chain
+        scheduler.requestPoll(0);
+        awaitPoll();
+        assertNoPoll();
+    }
+    
+    @Test
+    public void staleCompletionIsIgnored() throws InterruptedException {
+        scheduler.requestPoll(0);
+        long pollId = awaitPoll();
+        
+        scheduler.onPollCompleted(pollId + 1, 0);
+        assertTrue(scheduler.isPollInFlight());
+        assertEquals(0, scheduler.getCompletedPollCount());
+        assertNoPoll();
+        
+        scheduler.onPollCompleted(pollId, FAR);
+        scheduler.onPollCompleted(pollId, 0);
+        assertEquals(1, scheduler.getCompletedPollCount());
+        assertNoPoll();
+    }
+    
+    @Test
+    public void followUpRunsRightAfterInFlightPoll() throws InterruptedException {
+        scheduler.requestPoll(0);
+        long pollId = awaitPoll();
+        
+        scheduler.requestFollowUpPoll();
+        assertNoPoll();
+        
+        scheduler.onPollCompleted(pollId, FAR);
+        awaitPoll();
+    }
+    
+    @Test
+    public void shutdownCancelsPendingPoll() throws InterruptedException {
+        scheduler.requestPoll(50);
+        scheduler.shutdown();
+        assertNoPoll();
+        
+        scheduler.requestPoll(0);
+        assertNoPoll();
+    }
+}
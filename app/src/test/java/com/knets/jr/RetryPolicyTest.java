@@ -0,0 +1,125 @@
+package com.knets.jr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class RetryPolicyTest {
+    private static final long BASE = 1000;
+    private static final long MAX = 60000;
+    
+    /**
+     * Random whose nextDouble() always returns the same value.
+     */
+    private static Random fixed(double value) {
+        return new Random() {
+            @Override
+            public double nextDouble() {
+                return value;
+            }
+        };
+    }
+    
+    private static Response response(int code, String retryAfter) {
+        Response.Builder builder = new Response.Builder()
+                .request(new Request.Builder().url("https://example.com/api").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("HTTP " + code);
+        if (retryAfter != null) {
+            builder.header("Retry-After", retryAfter);
+        }
+        return builder.build();
+    }
+    
+    @Test
+    public void jitterStaysWithinCappedExponentialCeiling() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, new Random(42));
+        for (int attempt = 1; attempt <= 30; attempt++) {
+            long delay = policy.onFailure();
+            long ceiling = Math.min(MAX, BASE << Math.min(attempt - 1, 16));
+            assertTrue("attempt " + attempt + " delay " + delay, delay >= 0 && delay <= ceiling);
+        }
+        assertEquals(30, policy.getAttempts());
+    }
+    
+    @Test
+    public void ceilingDoublesPerAttemptUntilCap() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, fixed(0.999999));
+        assertEquals(999, policy.onFailure());
+        assertEquals(1999, policy.onFailure());
+        assertEquals(3999, policy.onFailure());
+        for (int i = 0; i < 10; i++) {
+            policy.onFailure();
+        }
+        assertEquals(59999, policy.onFailure());
+    }
+    
+    @Test
+    public void fullJitterCanRetryImmediately() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, fixed(0));
+        assertEquals(0, policy.onFailure());
+        assertEquals(0, policy.onFailure());
+    }
+    
+    @Test
+    public void successResetsAttempts() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, fixed(0.999999));
+        policy.onFailure();
+        policy.onFailure();
+        policy.onSuccess();
+        assertEquals(0, policy.getAttempts());
+        assertEquals(999, policy.onFailure());
+    }
+    
+    @Test
+    public void retryAfterIsAFloor() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, fixed(0));
+        long delay = policy.onHttpError(response(503, "30"));
+        assertTrue("delay " + delay, delay > 29000 && delay <= 30000);
+        
+        // Later network failures still wait out the server's window
+        long afterFailure = policy.onFailure();
+        assertTrue("delay " + afterFailure, afterFailure > 29000 && afterFailure <= 30000);
+        assertTrue(policy.remainingRetryAfter() > 29000);
+    }
+    
+    @Test
+    public void successClearsRetryAfter() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, fixed(0));
+        policy.onHttpError(response(429, "30"));
+        policy.onSuccess();
+        assertEquals(0, policy.remainingRetryAfter());
+        assertEquals(0, policy.onFailure());
+    }
+    
+    @Test
+    public void throttledWithoutHintWaitsAtLeastHalfTheCap() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, fixed(0));
+        assertEquals(MAX / 2, policy.onHttpError(response(429, null)));
+    }
+    
+    @Test
+    public void retryAfterIgnoredOnOtherErrors() {
+        RetryPolicy policy = new RetryPolicy("test", BASE, MAX, fixed(0));
+        assertEquals(0, policy.onHttpError(response(500, "30")));
+        assertEquals(0, policy.remainingRetryAfter());
+    }
+    
+    @Test
+    public void retryableStatusCodes() {
+        assertTrue(RetryPolicy.isRetryable(408));
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(404));
+    }
+}